@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the whole HTTP stack of a running server. Every player has its own keep-alive connection
+ * and plays complete games like a browser : it gets /play.html, then sends random guesses with
+ * /play.html?color1=...&color2=... and the MSESSID cookie, until the server ends the game with an expired cookie.
+ * With a target rate, every request has an intended send time on a fixed schedule and its latency is measured
+ * from that time, not from the time it was actually sent : a stalled server delays the next requests, and this
+ * wait is counted instead of being hidden (coordinated omission). The service time, from the actual send, is
+ * reported next to it. Without a rate, the players send their requests one after the other as fast as they can.
+ * In the default package, like ServerBridge, to use the LatencyHistogram and GameVariant of the server.
+ * Usage : java -cp mastermind-game-benchmarks/target/benchmarks.jar LoadGenerator [--host=localhost] [--port=8010]
+ *         [--players=50] [--rate=requests/s] [--duration=30] [--warmup=5] [--variant=classic] [--accept=type]
+ *         [--max-p99=ms] [--max-p999=ms] [--min-throughput=requests/s]
+ * The program exits with 1 if a request failed or a --max / --min check is not met, so a release can be gated on it.
+ */
+public class LoadGenerator {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final double QUANTILES[] = {0.5, 0.99, 0.999};
+
+    public String host = "localhost";
+    public int port = 8010;
+    public int players = 50;
+    //Requests per second of all the players, 0 to send as fast as possible
+    public double rate = 0;
+    public int durationSeconds = 30;
+    public int warmupSeconds = 5;
+    public GameVariant variant = GameVariant.CLASSIC;
+    public String accept = null;
+    public double maxP99Millis = 0;
+    public double maxP999Millis = 0;
+    public double minThroughput = 0;
+
+    //From the intended send time, and from the actual send time
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder unsent = new LongAdder();
+    private long measureStart;
+    private long measureEnd;
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator generator;
+        try {
+            generator = fromArgs(args);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("Invalid argument : " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(generator.host, generator.port), CONNECT_TIMEOUT_MILLIS);
+        }
+        catch (IOException e) {
+            System.err.println("Can not connect to " + generator.host + ":" + generator.port + " : " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        generator.run();
+        System.exit(generator.report() ? 0 : 1);
+    }
+
+    /**
+     * Reads the program arguments, all given as "--name=value" options
+     * @param args the program arguments
+     * @return the load generator
+     * @throws IllegalArgumentException if an argument is unknown or invalid
+     */
+    public static LoadGenerator fromArgs(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator == -1)
+                throw new IllegalArgumentException("unknown argument " + arg);
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (name) {
+                case "host":
+                    generator.host = value;
+                    break;
+                case "port":
+                    generator.port = (int) parsePositive(value);
+                    break;
+                case "players":
+                    generator.players = (int) parsePositive(value);
+                    break;
+                case "rate":
+                    generator.rate = parsePositive(value);
+                    break;
+                case "duration":
+                    generator.durationSeconds = (int) parsePositive(value);
+                    break;
+                case "warmup":
+                    generator.warmupSeconds = (int) parseNumber(value);
+                    break;
+                case "variant":
+                    generator.variant = GameVariant.fromName(value);
+                    if (generator.variant == null)
+                        throw new IllegalArgumentException("unknown variant " + value);
+                    break;
+                case "accept":
+                    generator.accept = value;
+                    break;
+                case "max-p99":
+                    generator.maxP99Millis = parsePositive(value);
+                    break;
+                case "max-p999":
+                    generator.maxP999Millis = parsePositive(value);
+                    break;
+                case "min-throughput":
+                    generator.minThroughput = parsePositive(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option --" + name);
+            }
+        }
+        return generator;
+    }
+
+    private static double parseNumber(String value) {
+        double number;
+        try {
+            number = Double.parseDouble(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number : " + value);
+        }
+        if (number < 0 || Double.isNaN(number) || Double.isInfinite(number))
+            throw new IllegalArgumentException("negative number : " + value);
+        return number;
+    }
+
+    private static double parsePositive(String value) {
+        double number = parseNumber(value);
+        if (number == 0)
+            throw new IllegalArgumentException("not a positive number : " + value);
+        return number;
+    }
+
+    /**
+     * Starts the players, then waits for the end of the warmup and of the measure
+     */
+    public void run() throws InterruptedException {
+        long start = System.nanoTime();
+        measureStart = start + warmupSeconds * 1_000_000_000L;
+        measureEnd = measureStart + durationSeconds * 1_000_000_000L;
+        //Every player sends at the same rate, the first requests are spread over one interval
+        long interval = rate == 0 ? 0 : (long) (players * 1e9 / rate);
+
+        Thread threads[] = new Thread[players];
+        for (int i = 0; i < players; i++) {
+            Player player = new Player(i, start + interval * i / players, interval);
+            threads[i] = new Thread(player::play, "player-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Prints the throughput and the latencies, then checks them against the --max and --min options
+     * @return true if no request failed and every check is met
+     */
+    public boolean report() {
+        double seconds = durationSeconds;
+        double throughput = requests.sum() / seconds;
+        System.out.printf(Locale.ROOT, "%d players, %s, %d s after %d s of warmup, %s variant, %s:%d%n",
+                players, rate == 0 ? "closed loop" : String.format(Locale.ROOT, "%.0f requests/s", rate),
+                durationSeconds, warmupSeconds, variant.name, host, port);
+        System.out.printf(Locale.ROOT, "requests      %d (%.1f /s), %d games (%.1f /s), %d errors%n",
+                requests.sum(), throughput, games.sum(), games.sum() / seconds, errors.sum());
+        if (rate != 0) {
+            if (unsent.sum() > 0)
+                System.out.printf(Locale.ROOT, "unsent        %d requests were still waiting at the end, counted in the latency%n", unsent.sum());
+            printLatency("latency", latency, "from the intended send time");
+        }
+        long serviceQuantiles[] = printLatency("service time", serviceTime, "from the actual send time");
+        long quantiles[] = rate == 0 ? serviceQuantiles : latency.getQuantiles(QUANTILES);
+
+        boolean isPassed = true;
+        if (errors.sum() > 0) {
+            System.out.println("FAILED : " + errors.sum() + " requests failed");
+            isPassed = false;
+        }
+        if (maxP99Millis > 0 && quantiles[1] > maxP99Millis * 1e6) {
+            System.out.printf(Locale.ROOT, "FAILED : p99 %.3f ms is over %.3f ms%n", quantiles[1] / 1e6, maxP99Millis);
+            isPassed = false;
+        }
+        if (maxP999Millis > 0 && quantiles[2] > maxP999Millis * 1e6) {
+            System.out.printf(Locale.ROOT, "FAILED : p99.9 %.3f ms is over %.3f ms%n", quantiles[2] / 1e6, maxP999Millis);
+            isPassed = false;
+        }
+        if (minThroughput > 0 && throughput < minThroughput) {
+            System.out.printf(Locale.ROOT, "FAILED : %.1f requests/s is under %.1f%n", throughput, minThroughput);
+            isPassed = false;
+        }
+        return isPassed;
+    }
+
+    private static long[] printLatency(String name, LatencyHistogram histogram, String comment) {
+        long quantiles[] = histogram.getQuantiles(QUANTILES);
+        System.out.printf(Locale.ROOT, "%-13s p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms (%s)%n", name,
+                quantiles[0] / 1e6, quantiles[1] / 1e6, quantiles[2] / 1e6, histogram.getMax() / 1e6, comment);
+        return quantiles;
+    }
+
+    /**
+     * A player with its connection, playing games one after the other
+     */
+    private class Player {
+        private final long interval;
+        private final SplittableRandom random;
+        private final byte buffer[] = new byte[BUFFER_SIZE];
+        private long nextSendTime;
+
+        private Socket socket;
+        private InputStream input;
+        private OutputStream output;
+        //Bytes of the buffer not read yet
+        private int position;
+        private int limit;
+
+        private String cookie = null;
+        //Read from the last reply
+        private int status;
+        private boolean isClosing;
+        private boolean isGameOver;
+
+        Player(int number, long firstSendTime, long interval) {
+            this.interval = interval;
+            this.random = new SplittableRandom(number);
+            this.nextSendTime = firstSendTime;
+        }
+
+        void play() {
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= measureEnd)
+                    break;
+
+                long intendedTime = interval == 0 ? now : nextSendTime;
+                nextSendTime += interval;
+                while (now < intendedTime) {
+                    LockSupport.parkNanos(intendedTime - now);
+                    now = System.nanoTime();
+                }
+
+                boolean isMeasured = intendedTime >= measureStart;
+                try {
+                    sendRequest();
+                    readReply();
+                }
+                catch (IOException e) {
+                    if (isMeasured)
+                        errors.increment();
+                    close();
+                    continue;
+                }
+
+                long end = System.nanoTime();
+                if (!isMeasured)
+                    continue;
+                if (status != 200) {
+                    errors.increment();
+                    continue;
+                }
+                latency.record(end - intendedTime);
+                serviceTime.record(end - now);
+                requests.increment();
+                if (isGameOver)
+                    games.increment();
+            }
+
+            //The requests this player should have sent and could not are as late as the end of the test
+            for (long time = nextSendTime; interval != 0 && time < measureEnd; time += interval) {
+                if (time >= measureStart) {
+                    latency.record(measureEnd - time);
+                    unsent.increment();
+                }
+            }
+            close();
+        }
+
+        /**
+         * Sends the next request of the game : the page without a game, a random guess otherwise
+         */
+        private void sendRequest() throws IOException {
+            if (socket == null)
+                connect();
+
+            StringBuilder request = new StringBuilder(256);
+            request.append("GET /play.html");
+            if (cookie == null) {
+                if (variant != GameVariant.CLASSIC)
+                    request.append("?variant=").append(variant.name);
+            }
+            else {
+                for (int i = 0; i < variant.pegs; i++) {
+                    request.append(i == 0 ? '?' : '&').append(variant.colorParameters[i]).append('=')
+                            .append(variant.colorNames[random.nextInt(variant.colors)]);
+                }
+            }
+            request.append(" HTTP/1.1\r\nHost: ").append(host).append(':').append(port).append("\r\n");
+            if (accept != null)
+                request.append("Accept: ").append(accept).append("\r\n");
+            if (cookie != null)
+                request.append("Cookie: MSESSID=").append(cookie).append("\r\n");
+            request.append("\r\n");
+
+            output.write(request.toString().getBytes(StandardCharsets.US_ASCII));
+            output.flush();
+        }
+
+        /**
+         * Reads a whole reply, keeps its status, its cookie and its connection header, and skips the body
+         */
+        private void readReply() throws IOException {
+            int headerEnd;
+            while ((headerEnd = findHeaderEnd()) == -1) {
+                if (limit == buffer.length)
+                    throw new IOException("headers longer than " + buffer.length + " bytes");
+                fill();
+            }
+
+            String headers = new String(buffer, position, headerEnd - position, StandardCharsets.US_ASCII);
+            position = headerEnd + 4;
+            status = Integer.parseInt(headers.substring(headers.indexOf(' ') + 1, headers.indexOf(' ') + 4));
+            isClosing = false;
+            isGameOver = false;
+            long contentLength = 0;
+
+            for (String line : headers.split("\r\n")) {
+                int colon = line.indexOf(':');
+                if (colon == -1)
+                    continue;
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                }
+                else if (name.equalsIgnoreCase("Connection")) {
+                    isClosing = value.equalsIgnoreCase("close");
+                }
+                else if (name.equalsIgnoreCase("Set-Cookie") && value.startsWith("MSESSID=")) {
+                    //An expired cookie ends the game, the next request starts a new one
+                    isGameOver = value.contains("expires=");
+                    int end = value.indexOf(';');
+                    cookie = isGameOver ? null : value.substring("MSESSID=".length(), end == -1 ? value.length() : end);
+                }
+            }
+
+            while (contentLength > 0) {
+                if (position == limit)
+                    fill();
+                int skipped = (int) Math.min(contentLength, limit - position);
+                position += skipped;
+                contentLength -= skipped;
+            }
+            if (isClosing)
+                close();
+        }
+
+        private int findHeaderEnd() {
+            for (int i = position; i + 3 < limit; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n')
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Reads more bytes after the ones not read yet, moved to the start of the buffer
+         */
+        private void fill() throws IOException {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            int read = input.read(buffer, limit, buffer.length - limit);
+            if (read == -1)
+                throw new IOException("connection closed by the server");
+            limit += read;
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            input = socket.getInputStream();
+            output = socket.getOutputStream();
+            position = 0;
+            limit = 0;
+        }
+
+        private void close() {
+            if (socket == null)
+                return;
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                //Nothing to do, the next request opens a new connection
+            }
+            socket = null;
+        }
+    }
+}
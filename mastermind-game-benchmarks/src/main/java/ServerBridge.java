@@ -0,0 +1,106 @@
+import benchmarks.ServerCalls;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Implementation of the benchmarked calls, in the default package next to the server classes.
+ */
+public class ServerBridge implements ServerCalls {
+    private final HtmlAdapter htmlAdapter = new HtmlAdapter();
+    private final HttpParser parser = new HttpParser();
+
+    @Override
+    public Object parseRequest(byte rawRequest[]) {
+        parser.reset();
+        parser.parse(rawRequest, rawRequest.length);
+        HttpRequest request = parser.getRequest();
+        //The game page reads the form of a POST, as the worker does
+        if (request instanceof HttpPost)
+            ((HttpPost) request).readFormParameters();
+        return request;
+    }
+
+    @Override
+    public Object newGame(String variantName) {
+        return new Mastermind(GameVariant.fromName(variantName));
+    }
+
+    @Override
+    public int getPegs(Object game) {
+        return ((Mastermind) game).variant.pegs;
+    }
+
+    @Override
+    public String[] getColorNames(Object game) {
+        return ((Mastermind) game).variant.colorNames;
+    }
+
+    @Override
+    public int encodeColors(Object game, String colors[]) {
+        return ((Mastermind) game).encodeColors(colors);
+    }
+
+    @Override
+    public long playRound(Object game, int guess) {
+        return ((Mastermind) game).addNewRoundValues(guess);
+    }
+
+    @Override
+    public boolean isGameOver(Object game) {
+        return ((Mastermind) game).isGameOver;
+    }
+
+    @Override
+    public Object replayGame(Object game) {
+        Mastermind mastermind = (Mastermind) game;
+        return new Mastermind(mastermind.variant, mastermind.gameId, mastermind.getSecretValues());
+    }
+
+    @Override
+    public String renderHtml(Object game) {
+        return htmlAdapter.generateStringFromMastermind((Mastermind) game);
+    }
+
+    @Override
+    public byte[] renderHtmlBytes(Object game) {
+        return htmlAdapter.generateBytesFromMastermind((Mastermind) game);
+    }
+
+    @Override
+    public byte[] renderHtmlBytes(Object game, String contentEncoding) {
+        return htmlAdapter.generateBytesFromMastermind((Mastermind) game, contentEncoding);
+    }
+
+    @Override
+    public byte[] renderPage(Object game, String accept) {
+        return HttpFactory.createAdapterFromAccept(accept).generateBytesFromMastermind((Mastermind) game);
+    }
+
+    @Override
+    public byte[] renderRound(Object game, long round, String accept) {
+        return HttpFactory.createAdapterFromAccept(accept).generateBytesFromRound((Mastermind) game, round);
+    }
+
+    @Override
+    public Object newHtmlReply(Object game, byte html[]) {
+        HashMap<String, String> extraHeaders = new HashMap<>();
+        extraHeaders.put("Set-Cookie: ", HttpConstant.mastermind_cookie_name + "=" + ((Mastermind) game).gameId);
+        return HttpFactory.createHttpReplyFromHtmlFile(html, extraHeaders);
+    }
+
+    @Override
+    public Object newTextReply(String text) {
+        return HttpFactory.createHttpReplyFromTextFile(text, null);
+    }
+
+    @Override
+    public ByteBuffer[] encodeReply(Object reply) {
+        return ((HttpReply) reply).getHttpResponse();
+    }
+
+    @Override
+    public ByteBuffer[] staticReply(String code) {
+        return StaticReply.get(code, true);
+    }
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the adapters chosen from the Accept header : the state of a game (the page of a new game or after
+ * a POST) and the result of a round, in HTML and text, JSON and binary. Includes the Accept negotiation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AdapterBenchmark {
+    @Param({"text/html", "application/json", "application/x-mastermind"})
+    public String accept;
+
+    @Param({"classic", "grand"})
+    public String variant;
+
+    private ServerCalls server;
+    private Object game;
+    private long round;
+
+    @Setup
+    public void setup() {
+        server = ServerCalls.load();
+        game = HtmlRenderingBenchmark.newGame(server, variant, 6);
+        String colors[] = new String[server.getPegs(game)];
+        Arrays.fill(colors, server.getColorNames(game)[0]);
+        round = server.playRound(game, server.encodeColors(game, colors));
+    }
+
+    @Benchmark
+    public byte[] generateBytesFromMastermind() {
+        return server.renderPage(game, accept);
+    }
+
+    @Benchmark
+    public byte[] generateBytesFromRound() {
+        return server.renderRound(game, round, accept);
+    }
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures HtmlAdapter.generateStringFromMastermind and generateBytesFromMastermind, the page sent for a new
+ * game or after a POST, with no round played and with half of the rounds played, uncompressed and gzipped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HtmlRenderingBenchmark {
+    @Param({"classic", "grand"})
+    public String variant;
+
+    @Param({"0", "6"})
+    public int playedRounds;
+
+    private ServerCalls server;
+    private Object game;
+
+    @Setup
+    public void setup() {
+        server = ServerCalls.load();
+        game = newGame(server, variant, playedRounds);
+    }
+
+    /**
+     * Creates a game and plays random rounds on it
+     * @param server the server calls
+     * @param variant the game variant name
+     * @param rounds the number of rounds to play
+     * @return the Mastermind game
+     */
+    static Object newGame(ServerCalls server, String variant, int rounds) {
+        Object game = server.newGame(variant);
+        String colorNames[] = server.getColorNames(game);
+        Random random = new Random(42);
+        for (int i = 0; i < rounds; i++) {
+            String colors[] = new String[server.getPegs(game)];
+            for (int j = 0; j < colors.length; j++) {
+                colors[j] = colorNames[random.nextInt(colorNames.length)];
+            }
+            server.playRound(game, server.encodeColors(game, colors));
+        }
+        return game;
+    }
+
+    @Benchmark
+    public String generateStringFromMastermind() {
+        return server.renderHtml(game);
+    }
+
+    @Benchmark
+    public byte[] generateBytesFromMastermind() {
+        return server.renderHtmlBytes(game);
+    }
+
+    @Benchmark
+    public byte[] generateGzipFromMastermind() {
+        return server.renderHtmlBytes(game, "gzip");
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of the requests a player sends, from the bytes read on the socket.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpParsingBenchmark {
+    private static final String HEADERS = "Host: localhost:8010\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:63.0) Gecko/20100101 Firefox/63.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "Cookie: MSESSID=0123456789ABCDEFGHIJKLMNOP\r\n" +
+            "Connection: keep-alive\r\n";
+
+    @Param({"newGame", "guess", "post"})
+    public String request;
+
+    private ServerCalls server;
+    private byte rawRequest[];
+
+    @Setup
+    public void setup() {
+        server = ServerCalls.load();
+        String rawRequest;
+        switch (request) {
+            case "newGame":
+                rawRequest = "GET /play.html HTTP/1.1\r\n" + HEADERS + "\r\n";
+                break;
+            case "guess":
+                rawRequest = "GET /play.html?color1=red&color2=blue&color3=yellow&color4=green HTTP/1.1\r\n" +
+                        HEADERS + "\r\n";
+                break;
+            default:
+                String body = "color1=red&color2=blue&color3=yellow&color4=green";
+                rawRequest = "POST /play.html HTTP/1.1\r\n" + HEADERS +
+                        "Content-Type: application/x-www-form-urlencoded\r\n" +
+                        "Content-Length: " + body.length() + "\r\n\r\n" + body;
+                break;
+        }
+        this.rawRequest = rawRequest.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Object parse() {
+        return server.parseRequest(rawRequest);
+    }
+}
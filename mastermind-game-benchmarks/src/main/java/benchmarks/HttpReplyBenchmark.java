@@ -0,0 +1,45 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures HttpReply.getHttpResponse, the encoding of the replies : the HTML page of a game and the short
+ * result of a round, and the pre-serialized replies such as the 404 answered to scanners.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpReplyBenchmark {
+    private ServerCalls server;
+    private Object htmlReply;
+    private Object textReply;
+
+    @Setup
+    public void setup() {
+        server = ServerCalls.load();
+        Object game = HtmlRenderingBenchmark.newGame(server, "classic", 6);
+        htmlReply = server.newHtmlReply(game, server.renderHtmlBytes(game));
+        textReply = server.newTextReply("7_2_1");
+    }
+
+    @Benchmark
+    public ByteBuffer[] htmlReply() {
+        return server.encodeReply(htmlReply);
+    }
+
+    @Benchmark
+    public ByteBuffer[] textReply() {
+        return server.encodeReply(textReply);
+    }
+
+    @Benchmark
+    public ByteBuffer[] notFoundReply() {
+        return server.staticReply("404");
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Mastermind.addNewRoundValues, the scoring of a guess, for every game variant. The guesses are
+ * drawn in advance so the benchmark does not measure the random generator.
+ * A game over is replaced by the same game with no round played, so every measured call scores a guess. The
+ * replacement, at most once every 12 rounds, is part of the measure.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScoringBenchmark {
+    private static final int GUESSES = 1024;
+
+    @Param({"classic", "super", "expert", "grand"})
+    public String variant;
+
+    private ServerCalls server;
+    private Object game;
+    private final int guesses[] = new int[GUESSES];
+    private int next;
+    private long unscoredRounds;
+
+    @Setup
+    public void setup() {
+        server = ServerCalls.load();
+        game = server.newGame(variant);
+
+        String colorNames[] = server.getColorNames(game);
+        Random random = new Random(42);
+        for (int i = 0; i < GUESSES; i++) {
+            String colors[] = new String[server.getPegs(game)];
+            for (int j = 0; j < colors.length; j++) {
+                colors[j] = colorNames[random.nextInt(colorNames.length)];
+            }
+            guesses[i] = server.encodeColors(game, colors);
+        }
+    }
+
+    @Benchmark
+    public long addNewRoundValues() {
+        if (server.isGameOver(game))
+            game = server.replayGame(game);
+        next = (next + 1) & (GUESSES - 1);
+        long round = server.playRound(game, guesses[next]);
+        if (round == ServerCalls.GAME_OVER)
+            unscoredRounds++;
+        return round;
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkEveryRoundIsScored() {
+        if (unscoredRounds != 0)
+            throw new IllegalStateException(unscoredRounds + " rounds were not scored, the game was over");
+    }
+}
@@ -0,0 +1,153 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Calls of the server measured by the benchmarks. The server classes live in the default package, which
+ * JMH refuses for benchmark classes and which a named package cannot import, so the calls go through this
+ * interface, implemented by ServerBridge in the default package. The only implementation is loaded once,
+ * so the calls are monomorphic and inlined by the JIT.
+ * The server objects are passed around as Object, the bridge casts them back.
+ */
+public interface ServerCalls {
+    //Round returned for a game already won or lost, Mastermind.GAME_OVER
+    long GAME_OVER = -1;
+
+    /**
+     * Parses a raw HTTP request header (and body, read as a form for a POST) like a connection and its worker do
+     * @param rawRequest the request bytes as read from the socket
+     * @return the HttpRequest
+     */
+    Object parseRequest(byte rawRequest[]);
+
+    /**
+     * Creates a game
+     * @param variantName the game variant name
+     * @return the Mastermind game
+     */
+    Object newGame(String variantName);
+
+    /**
+     * Gives the number of pegs of a game
+     * @param game the Mastermind game
+     * @return the number of pegs
+     */
+    int getPegs(Object game);
+
+    /**
+     * Gives the colors a game can use
+     * @param game the Mastermind game
+     * @return the color names
+     */
+    String[] getColorNames(Object game);
+
+    /**
+     * Packs color names into a combination of a game
+     * @param game the Mastermind game
+     * @param colors the color names, one per peg
+     * @return the packed combination
+     */
+    int encodeColors(Object game, String colors[]);
+
+    /**
+     * Plays a round
+     * @param game the Mastermind game
+     * @param guess the packed combination
+     * @return the packed round, GAME_OVER if the game was already won or lost
+     */
+    long playRound(Object game, int guess);
+
+    /**
+     * Tells if a game is won or lost, so a round played on it would not be scored
+     * @param game the Mastermind game
+     * @return true if the game is over
+     */
+    boolean isGameOver(Object game);
+
+    /**
+     * Creates a new game with the variant and the secret of a game, without drawing a new secret or a new ID
+     * @param game the Mastermind game
+     * @return the new game, no round played
+     */
+    Object replayGame(Object game);
+
+    /**
+     * Renders the HTML page of a game
+     * @param game the Mastermind game
+     * @return the HTML page
+     */
+    String renderHtml(Object game);
+
+    /**
+     * Renders the HTML page of a game encoded in UTF-8
+     * @param game the Mastermind game
+     * @return the HTML bytes
+     */
+    byte[] renderHtmlBytes(Object game);
+
+    /**
+     * Renders the HTML page of a game encoded in UTF-8 and compressed
+     * @param game the Mastermind game
+     * @param contentEncoding gzip, deflate or identity
+     * @return the compressed HTML bytes
+     */
+    byte[] renderHtmlBytes(Object game, String contentEncoding);
+
+    /**
+     * Renders the state of a game with the adapter chosen from an Accept header
+     * @param game the Mastermind game
+     * @param accept the Accept header
+     * @return the page, JSON or binary bytes
+     */
+    byte[] renderPage(Object game, String accept);
+
+    /**
+     * Renders the result of a round with the adapter chosen from an Accept header
+     * @param game the Mastermind game
+     * @param round the packed round
+     * @param accept the Accept header
+     * @return the text, JSON or binary bytes
+     */
+    byte[] renderRound(Object game, long round, String accept);
+
+    /**
+     * Creates the reply holding the HTML page of a game, with its session cookie
+     * @param game the Mastermind game
+     * @param html the page encoded in UTF-8
+     * @return the HttpReply
+     */
+    Object newHtmlReply(Object game, byte html[]);
+
+    /**
+     * Creates the reply holding the result of a round
+     * @param text the result
+     * @return the HttpReply
+     */
+    Object newTextReply(String text);
+
+    /**
+     * Encodes a reply as it is sent to the client
+     * @param reply the HttpReply
+     * @return the buffers of the HTTP response
+     */
+    ByteBuffer[] encodeReply(Object reply);
+
+    /**
+     * Gives the pre-serialized reply of a code, for a connection kept alive
+     * @param code the HTTP code
+     * @return the buffers of the HTTP response
+     */
+    ByteBuffer[] staticReply(String code);
+
+    /**
+     * Loads the implementation from the default package
+     * @return the server calls
+     */
+    static ServerCalls load() {
+        try {
+            return (ServerCalls) Class.forName("ServerBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ServerBridge is missing from the classpath", e);
+        }
+    }
+}
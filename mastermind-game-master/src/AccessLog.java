@@ -0,0 +1,244 @@
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log of the HTTP requests, one line per request :
+ * time=2026-10-18T18:55:01.123Z method=GET path="/play.html" status=200 bytes=1234 latency_us=85 game=AbC...
+ * The workers only fill an entry of a ring buffer, without lock nor allocation : the lines are formatted and
+ * written by a writer thread, many lines per write. When the writer is behind by the whole ring, the entries
+ * are dropped (and counted) instead of slowing the workers down.
+ * A sample of the requests can be logged, one out of N chosen at random, the errors (status 400 and up)
+ * are always logged.
+ */
+public class AccessLog {
+    public static final String STANDARD_OUTPUT = "-";
+
+    private static final int RING_SIZE = 1 << 16;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    //Longer paths are cut
+    private static final int MAX_PATH_LENGTH = 1024;
+    private static final int MAX_LINE_LENGTH = 200 + 2 * MAX_PATH_LENGTH;
+    private static final long IDLE_WAIT_NANOS = 10_000_000;
+    private static final DateTimeFormatter SECOND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private final WritableByteChannel output;
+    private final int sampling;
+
+    //Entries of the ring, written by the workers, read by the writer thread
+    private final long timestamps[] = new long[RING_SIZE];
+    private final String methods[] = new String[RING_SIZE];
+    private final String paths[] = new String[RING_SIZE];
+    private final int statuses[] = new int[RING_SIZE];
+    private final long sizes[] = new long[RING_SIZE];
+    private final long latencies[] = new long[RING_SIZE];
+    private final String gameIds[] = new String[RING_SIZE];
+    //Sequence number of the entry of each slot once written, so the writer never reads an entry being written
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile long writtenSequence = 0;
+    private volatile boolean isClosed = false;
+    private final Thread writer;
+
+    //Used by the writer thread only
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private long currentSecond = -1;
+    private byte secondText[];
+
+    /**
+     * Opens the log file and starts the writer thread
+     * @param file the file the lines are appended to, "-" for the standard output
+     * @param sampling log one request out of this number, 1 to log them all
+     * @throws IOException if the file can not be opened
+     */
+    public AccessLog(String file, int sampling) throws IOException {
+        this.output = file.equals(STANDARD_OUTPUT)
+                ? Channels.newChannel(new FileOutputStream(FileDescriptor.out))
+                : FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.sampling = sampling;
+        for (int i = 0; i < RING_SIZE; i++) {
+            published.set(i, -1);
+        }
+
+        writer = new Thread(this::runWriter, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Logs a request once its replies are queued. Called by the workers, never blocks.
+     * @param request the request
+     * @param status the status code of the reply
+     * @param size the number of bytes of the reply
+     * @param gameId the game of the request, null if none
+     */
+    public void log(HttpRequest request, int status, long size, String gameId) {
+        if (status < 400 && sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0)
+            return;
+
+        long sequence;
+        do {
+            sequence = nextSequence.get();
+            if (sequence - writtenSequence >= RING_SIZE) {
+                Metrics.ACCESS_LOG_DROPPED.increment();
+                return;
+            }
+        } while (!nextSequence.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & (RING_SIZE - 1);
+        timestamps[slot] = System.currentTimeMillis();
+        methods[slot] = request instanceof HttpGet ? "GET" : request instanceof HttpPost ? "POST" : "-";
+        paths[slot] = request.httpUrl;
+        statuses[slot] = status;
+        sizes[slot] = size;
+        latencies[slot] = System.nanoTime() - request.receivedTime;
+        gameIds[slot] = gameId;
+        published.lazySet(slot, sequence);
+    }
+
+    /**
+     * Writes the lines still in the ring and stops the writer thread. Called when the server stops.
+     */
+    public void close() {
+        isClosed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the entries in order and writes them as soon as the buffer is full or the ring is empty
+     */
+    private void runWriter() {
+        long sequence = writtenSequence;
+        while (true) {
+            int slot = (int) sequence & (RING_SIZE - 1);
+            if (published.get(slot) == sequence) {
+                if (buffer.remaining() < MAX_LINE_LENGTH)
+                    write();
+                appendLine(slot);
+                paths[slot] = null;
+                gameIds[slot] = null;
+                writtenSequence = ++sequence;
+                continue;
+            }
+
+            write();
+            if (isClosed && sequence == nextSequence.get())
+                break;
+            LockSupport.parkNanos(IDLE_WAIT_NANOS);
+        }
+
+        try {
+            output.close();
+        } catch (IOException e) {
+            System.err.println("Error while closing the access log : " + e.getMessage());
+        }
+    }
+
+    private void appendLine(int slot) {
+        long timestamp = timestamps[slot];
+        long second = timestamp / 1000;
+        if (second != currentSecond) {
+            currentSecond = second;
+            secondText = ascii(SECOND_FORMAT.format(Instant.ofEpochSecond(second)));
+        }
+
+        put("time=");
+        buffer.put(secondText);
+        buffer.put((byte) '.');
+        putPadded(timestamp % 1000, 3);
+        put("Z method=");
+        put(methods[slot]);
+        put(" path=\"");
+        putQuoted(paths[slot]);
+        put("\" status=");
+        putNumber(statuses[slot]);
+        put(" bytes=");
+        putNumber(sizes[slot]);
+        put(" latency_us=");
+        putNumber(latencies[slot] / 1000);
+        put(" game=");
+        put(gameIds[slot] == null ? "-" : gameIds[slot]);
+        buffer.put((byte) '\n');
+    }
+
+    private void write() {
+        if (buffer.position() == 0)
+            return;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                output.write(buffer);
+            }
+        } catch (IOException e) {
+            System.err.println("Error while writing the access log : " + e.getMessage());
+        }
+        buffer.clear();
+    }
+
+    private void put(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a path between quotes : the quotes and backslashes are escaped, the other characters that are
+     * not printable ASCII are replaced with '?'
+     */
+    private void putQuoted(String text) {
+        if (text == null)
+            return;
+        for (int i = 0; i < Math.min(text.length(), MAX_PATH_LENGTH); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+                buffer.put((byte) '\\');
+            buffer.put(c < 0x20 || c > 0x7E ? (byte) '?' : (byte) c);
+        }
+    }
+
+    private void putNumber(long number) {
+        if (number < 0) {
+            buffer.put((byte) '-');
+            number = -number;
+        }
+        int digits = 1;
+        for (long rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        putPadded(number, digits);
+    }
+
+    private void putPadded(long number, int digits) {
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= end - digits; i--) {
+            buffer.put(i, (byte) ('0' + number % 10));
+            number /= 10;
+        }
+        buffer.position(end);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
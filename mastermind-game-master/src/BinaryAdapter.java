@@ -0,0 +1,96 @@
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates the state of a game and the result of a round in a fixed binary layout, the cheapest format to
+ * produce and to read for the clients that are not browsers. Every field is an unsigned byte.
+ * A game : version, type (0), pegs, colors, maxTries, tries, state (0 playing, 1 won, 2 lost), 0, then for
+ * every round played the color index of each peg followed by the number of good and well placed colors and
+ * the number of good colors.
+ * A round : version, type (1), tries, good and well placed colors, good colors, state.
+ * The color indexes refer to the colors of the variant, in the order of the JSON and HTML replies.
+ */
+public class BinaryAdapter implements IHttpAdapter {
+    public static final String CONTENT_TYPE = "application/x-mastermind";
+
+    public static final byte VERSION = 1;
+    public static final byte TYPE_GAME = 0;
+    public static final byte TYPE_ROUND = 1;
+
+    private static final int GAME_HEADER_LENGTH = 8;
+    private static final int ROUND_LENGTH = 6;
+
+    public String getPageContentType() {
+        return CONTENT_TYPE;
+    }
+
+    public String getRoundContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /**
+     * Gives the binary game as a string, one character per byte
+     * @param game the mastermind game object
+     * @return the binary game in ISO-8859-1
+     */
+    public String generateStringFromMastermind(Mastermind game) {
+        return new String(generateBytesFromMastermind(game), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Generates the binary game : its variant, its state and every round played
+     * @param game the mastermind game object
+     * @return the bytes
+     */
+    public byte[] generateBytesFromMastermind(Mastermind game) {
+        GameVariant variant = game.variant;
+        int tries = game.getPlayedTries();
+        byte data[] = new byte[GAME_HEADER_LENGTH + tries * (variant.pegs + 2)];
+        data[0] = VERSION;
+        data[1] = TYPE_GAME;
+        data[2] = (byte) variant.pegs;
+        data[3] = (byte) variant.colors;
+        data[4] = (byte) variant.maxTries;
+        data[5] = (byte) tries;
+        data[6] = (byte) game.getState(tries);
+
+        int offset = GAME_HEADER_LENGTH;
+        for (int i = 0; i < tries; i++) {
+            long round = game.roundValues[i];
+            int guess = Mastermind.getGuess(round);
+            for (int j = 0; j < variant.pegs; j++) {
+                data[offset++] = (byte) Mastermind.getPeg(guess, j);
+            }
+            data[offset++] = (byte) Mastermind.getGoodColorAndPosition(round);
+            data[offset++] = (byte) Mastermind.getGoodColors(round);
+        }
+        return data;
+    }
+
+    /**
+     * Generates the binary game, then compresses it
+     * @param game the mastermind game object
+     * @param contentEncoding ContentEncoding.GZIP, DEFLATE or IDENTITY
+     * @return the encoded bytes
+     */
+    public byte[] generateBytesFromMastermind(Mastermind game, String contentEncoding) {
+        return ContentEncoding.encode(generateBytesFromMastermind(game), contentEncoding);
+    }
+
+    /**
+     * Generates the binary round : the number of rounds played, its result and the state of the game
+     * @param game the mastermind game object
+     * @param round the packed round
+     * @return the bytes
+     */
+    public byte[] generateBytesFromRound(Mastermind game, long round) {
+        byte data[] = new byte[ROUND_LENGTH];
+        data[0] = VERSION;
+        data[1] = TYPE_ROUND;
+        data[2] = (byte) Mastermind.getTries(round);
+        data[3] = (byte) Mastermind.getGoodColorAndPosition(round);
+        data[4] = (byte) Mastermind.getGoodColors(round);
+        data[5] = (byte) game.getStateAfter(round);
+        return data;
+    }
+}
@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * State of a single client connection owned by a selector thread. Accumulates the bytes of the request
+ * until it is complete and keeps the bytes of the reply until the socket accepts them.
+ */
+public class ClientConnection {
+    private static final int INITIAL_BUFFER_SIZE = 2048;
+    //Enough for the replies of a whole batch of pipelined requests in a single write
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
+    private final SocketChannel channel;
+    private final SelectorThread owner;
+    private final ServerConfig config;
+    private SelectionKey key;
+    final long acceptTime = System.nanoTime();
+
+    private int requestCount = 0;
+    private long lastActivity = System.nanoTime();
+    private long requestStart = -1;
+    private volatile boolean requestInFlight = false;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final HttpParser parser = new HttpParser();
+    private volatile WebSocketSession webSocket;
+    private final HttpRequest batch[];
+
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    private final ByteBuffer writeBatch[] = new ByteBuffer[MAX_GATHERED_BUFFERS];
+    private boolean closeAfterWrite = false;
+    private boolean resumeAfterWrite = false;
+    //Bytes queued since the connection opened and status of the last reply, for the access log
+    private long queuedBytes = 0;
+    private int lastStatus = 0;
+    private volatile boolean closed = false;
+
+    public ClientConnection(SocketChannel channel, SelectorThread owner, ServerConfig config) {
+        this.channel = channel;
+        this.owner = owner;
+        this.config = config;
+        this.batch = new HttpRequest[config.maxPipelinedRequests];
+    }
+
+    /**
+     * Setter for the selection key, called by the owner once the channel is registered
+     * @param key the selection key
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Getter for the socket channel
+     * @return the client socket channel
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Getter for the remote address, used for logging
+     * @return the remote address as a string
+     */
+    public String getRemoteAddress() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Reads what is available on the socket. Runs on the selector thread and never blocks.
+     * @return the complete requests, or null if more bytes are needed
+     * @throws IOException connection error
+     */
+    HttpRequest[] onReadable() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            //The parser answers a request over its limits before the buffer is full, this is only a safety net
+            if (readBuffer.capacity() >= HttpParser.MAX_REQUEST_SIZE)
+                return rejectTooLarge();
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, HttpParser.MAX_REQUEST_SIZE));
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        }
+
+        if (readBuffer.position() == 0)
+            requestStart = System.nanoTime();
+
+        int read = channel.read(readBuffer);
+        if (read == -1)
+            throw new IOException("connection closed by the client");
+        lastActivity = System.nanoTime();
+
+        return extractRequests();
+    }
+
+    /**
+     * Parses the bytes read so far, from where the last read stopped. Every request already received is taken
+     * (HTTP pipelining), so they are handled by a single worker and their replies are sent together. The batch
+     * stops after a request that ends the connection or upgrades it, and at the maximum size of a batch.
+     * Marks the connection as busy when a request is complete. Once upgraded to WebSocket, reads the frames
+     * instead.
+     * @return the complete requests (an HttpReply for a bad one), or null if no request is complete yet
+     */
+    HttpRequest[] extractRequests() {
+        byte data[] = readBuffer.array();
+        int limit = readBuffer.position();
+
+        if (webSocket != null) {
+            //The frames are handled right away, they never give a request
+            dropBytes(webSocket.onBytes(data, limit));
+            return null;
+        }
+
+        long start = System.nanoTime();
+        int count = 0;
+        int used = 0;
+        while (count < batch.length && parser.parse(data, limit)) {
+            HttpRequest request = parser.getRequest();
+            used += parser.getRequestLength();
+            parser.reset(used);
+            batch[count++] = request;
+            requestCount++;
+
+            boolean endsBatch = request instanceof HttpReply
+                    || "close".equalsIgnoreCase(request.httpHeaders.get(HttpParser.CONNECTION))
+                    || WebSocketSession.isUpgradeRequest(request)
+                    || !acceptsMoreRequests();
+            if (endsBatch)
+                break;
+        }
+
+        // Keep the bytes already received after these requests
+        parser.shift(used);
+        dropBytes(used);
+        if (count == 0)
+            return null;
+        Metrics.PARSE.recordSince(start);
+        Metrics.REQUESTS.add(count);
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            batch[i].receivedTime = now;
+        }
+
+        HttpRequest requests[] = Arrays.copyOf(batch, count);
+        Arrays.fill(batch, 0, count, null);
+        requestInFlight = true;
+        return requests;
+    }
+
+    /**
+     * Gives a 413 reply in place of a request that does not fit in the read buffer, the connection is closed
+     * once it is sent
+     * @return the reply, handled by a worker like a bad request
+     */
+    private HttpRequest[] rejectTooLarge() {
+        dropBytes(readBuffer.position());
+        parser.reset();
+        HttpRequest reply = HttpFactory.createHttpReplyFromCode(HttpConstant.code_413, null);
+        reply.receivedTime = System.nanoTime();
+        requestInFlight = true;
+        return new HttpRequest[] {reply};
+    }
+
+    /**
+     * Removes the bytes handled from the start of the read buffer
+     * @param count the number of bytes handled
+     */
+    private void dropBytes(int count) {
+        readBuffer.flip();
+        readBuffer.position(count);
+        readBuffer.compact();
+        requestStart = readBuffer.position() > 0 ? System.nanoTime() : -1;
+    }
+
+    /**
+     * Queues bytes to be sent to the client. Can be called from any thread.
+     * @param data the bytes to send
+     */
+    public void send(byte[] data) {
+        send(new ByteBuffer[] {ByteBuffer.wrap(data)});
+    }
+
+    /**
+     * Queues buffers to be sent to the client, written together with a single gathering write when the
+     * socket accepts them. Can be called from any thread. While a worker handles requests, the replies are
+     * only written once it ends them, so the replies of a batch leave together.
+     * @param buffers the buffers to send, in order
+     */
+    public void send(ByteBuffer[] buffers) {
+        synchronized (pendingWrites) {
+            readStatus(buffers[0]);
+            for (ByteBuffer buffer : buffers) {
+                pendingWrites.add(buffer);
+                queuedBytes += buffer.remaining();
+            }
+        }
+        if (!requestInFlight)
+            owner.requestWrite(this);
+    }
+
+    /**
+     * Keeps the status code of a reply from its status line, "HTTP/1.1 200 OK". The other buffers (the
+     * chunks of a reply, the WebSocket frames) are ignored.
+     */
+    private void readStatus(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < 12 || buffer.get(start) != 'H' || buffer.get(start + 4) != '/' || buffer.get(start + 8) != ' ')
+            return;
+        int status = 0;
+        for (int i = start + 9; i < start + 12; i++) {
+            status = status * 10 + buffer.get(i) - '0';
+        }
+        lastStatus = status;
+    }
+
+    /**
+     * Getter for the number of bytes queued since the connection opened
+     * @return the number of bytes
+     */
+    public long getQueuedBytes() {
+        synchronized (pendingWrites) {
+            return queuedBytes;
+        }
+    }
+
+    /**
+     * Getter for the status code of the last reply queued
+     * @return the status code, 0 if no reply was queued
+     */
+    public int getLastStatus() {
+        synchronized (pendingWrites) {
+            return lastStatus;
+        }
+    }
+
+    /**
+     * Writes what is queued without waiting for the end of the current requests, for a reply sent in several
+     * parts. Can be called from any thread.
+     */
+    public void flush() {
+        owner.requestWrite(this);
+    }
+
+    /**
+     * Closes the connection once everything queued is sent. Can be called from any thread.
+     */
+    public void close() {
+        synchronized (pendingWrites) {
+            closeAfterWrite = true;
+        }
+        owner.requestWrite(this);
+    }
+
+    /**
+     * Ends the current requests and sends their replies. The connection is kept open for the next request if
+     * wanted, otherwise it is closed once the replies are sent. Can be called from any thread.
+     * @param keepAlive true to read the next request on this connection
+     */
+    public void endRequest(boolean keepAlive) {
+        if (!keepAlive) {
+            close();
+            return;
+        }
+        synchronized (pendingWrites) {
+            resumeAfterWrite = true;
+        }
+        owner.requestWrite(this);
+    }
+
+    /**
+     * Switches the connection to the WebSocket protocol once the current reply is sent. Called by the worker
+     * before it ends the upgrade request.
+     * @param session the session reading the frames
+     */
+    public void upgrade(WebSocketSession session) {
+        this.webSocket = session;
+    }
+
+    /**
+     * Runs a task on the worker threads, for the messages of an upgraded connection
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        owner.execute(task);
+    }
+
+    /**
+     * Tells if the connection can serve another request after the current one.
+     * @return false if the maximum number of requests per connection is reached
+     */
+    public boolean acceptsMoreRequests() {
+        return requestCount < config.keepAliveMaxRequests;
+    }
+
+    /**
+     * Tells if the reply of the last request is sent and the connection can read again. Runs on the
+     * selector thread, after everything was written.
+     * @return true if the connection must read the next request
+     */
+    boolean takeResume() {
+        synchronized (pendingWrites) {
+            if (!resumeAfterWrite)
+                return false;
+            resumeAfterWrite = false;
+            requestInFlight = false;
+            lastActivity = System.nanoTime();
+            return true;
+        }
+    }
+
+    /**
+     * Tells if a worker is handling a request of this connection
+     * @return true if the connection waits for a worker
+     */
+    boolean isRequestInFlight() {
+        return requestInFlight;
+    }
+
+    /**
+     * Tells if the connection waited too long, either idle between two requests or while receiving a
+     * request. A connection waiting for a worker is never considered expired. A WebSocket connection is kept
+     * as long as its game.
+     * @param now the current time in nanoseconds
+     * @return true if the connection must be closed
+     */
+    boolean isExpired(long now) {
+        if (requestInFlight)
+            return false;
+
+        long timeout = (webSocket != null ? WebServer.MAX_SESSION_TIME_SECONDS : config.keepAliveTimeoutSeconds) * 1_000_000_000L;
+        return now - lastActivity > timeout || (requestStart != -1 && now - requestStart > timeout);
+    }
+
+    /**
+     * Writes as much as the socket accepts. Runs on the selector thread.
+     * @return true if everything was written
+     * @throws IOException connection error
+     */
+    boolean onWritable() throws IOException {
+        synchronized (pendingWrites) {
+            while (!pendingWrites.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : pendingWrites) {
+                    writeBatch[count++] = buffer;
+                    if (count == writeBatch.length)
+                        break;
+                }
+
+                long start = System.nanoTime();
+                Metrics.BYTES_WRITTEN.add(channel.write(writeBatch, 0, count));
+                Metrics.WRITE.recordSince(start);
+                //The socket is full if it did not take the last buffer of the batch
+                boolean isSocketFull = writeBatch[count - 1].hasRemaining();
+                Arrays.fill(writeBatch, 0, count, null);
+
+                while (!pendingWrites.isEmpty() && !pendingWrites.peek().hasRemaining())
+                    pendingWrites.poll();
+                if (isSocketFull)
+                    return false;
+            }
+
+            if (closeAfterWrite)
+                closeNow();
+            return true;
+        }
+    }
+
+    /**
+     * Updates the operations the selector waits for. Runs on the selector thread.
+     * @param operations the selection key interest set
+     */
+    void setInterest(int operations) {
+        if (key != null && key.isValid())
+            key.interestOps(operations);
+    }
+
+    /**
+     * Closes the socket immediately. Runs on the selector thread.
+     */
+    void closeNow() {
+        if (closed)
+            return;
+        closed = true;
+        if (key != null)
+            key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error while closing client connection : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Getter for the closed state
+     * @return true if the socket is closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+}
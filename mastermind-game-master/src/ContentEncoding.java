@@ -0,0 +1,227 @@
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compression of the replies (Content-Encoding gzip or deflate), chosen from the Accept-Encoding header.
+ * A compressed body is built from raw deflate segments : the segments of the static content are compressed
+ * once and reused, only the dynamic content is compressed for every reply, with pooled Deflater instances.
+ * Every segment but the last ends with a full flush, so it stops on a byte boundary and does not refer to
+ * the previous segments : the segments can be put one after the other in a single deflate stream.
+ */
+public final class ContentEncoding {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String IDENTITY = "identity";
+    //Shorter bodies get bigger once compressed, with the headers and checksum of the format
+    public static final int MIN_COMPRESSED_LENGTH = 256;
+
+    private static final byte GZIP_HEADER[] = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final byte ZLIB_HEADER[] = {0x78, (byte) 0x9c};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final int MAX_POOLED_DEFLATERS = 64;
+    private static final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledDeflaters = new AtomicInteger();
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Chooses the encoding of a reply, gzip first, then deflate. An encoding refused with q=0 is not used.
+     * @param acceptEncoding the Accept-Encoding header of the request, can be null
+     * @return GZIP, DEFLATE or IDENTITY
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return IDENTITY;
+
+        boolean acceptsDeflate = false;
+        for (String coding : acceptEncoding.split(",")) {
+            int parameters = coding.indexOf(';');
+            String name = (parameters == -1 ? coding : coding.substring(0, parameters)).trim();
+            if (parameters != -1 && isRefused(coding.substring(parameters + 1)))
+                continue;
+
+            if (name.equalsIgnoreCase(GZIP) || name.equals("*"))
+                return GZIP;
+            if (name.equalsIgnoreCase(DEFLATE))
+                acceptsDeflate = true;
+        }
+        return acceptsDeflate ? DEFLATE : IDENTITY;
+    }
+
+    private static boolean isRefused(String parameters) {
+        String quality = parameters.trim();
+        if (!quality.startsWith("q="))
+            return false;
+        try {
+            return Double.parseDouble(quality.substring(2).trim()) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compresses a whole body
+     * @param body the body
+     * @param encoding GZIP, DEFLATE or IDENTITY
+     * @return the encoded body, the body itself for IDENTITY
+     */
+    public static byte[] encode(byte body[], String encoding) {
+        if (encoding.equals(IDENTITY))
+            return body;
+
+        Body encoded = new Body(body, encoding, body.length + body.length / 1000 + 64);
+        encoded.deflate(0, body.length, true);
+        return encoded.finish();
+    }
+
+    /**
+     * Compresses static content once, to be reused in compressed bodies
+     * @param data the content
+     * @param isLast true if this content ends the body
+     * @return the raw deflate segment
+     */
+    public static byte[] deflateSegment(byte data[], boolean isLast) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            byte segment[] = new byte[data.length + data.length / 1000 + 64];
+            deflater.setInput(data);
+            if (isLast)
+                deflater.finish();
+            int length = deflater.deflate(segment, 0, segment.length, isLast ? Deflater.NO_FLUSH : Deflater.FULL_FLUSH);
+            byte result[] = new byte[length];
+            System.arraycopy(segment, 0, result, 0, length);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static Deflater takeDeflater() {
+        Deflater deflater = deflaters.poll();
+        //The dynamic content is repetitive, the fastest level compresses it almost as well as the default one
+        if (deflater == null)
+            return new Deflater(Deflater.BEST_SPEED, true);
+        pooledDeflaters.decrementAndGet();
+        return deflater;
+    }
+
+    private static void giveBackDeflater(Deflater deflater) {
+        deflater.reset();
+        if (pooledDeflaters.incrementAndGet() <= MAX_POOLED_DEFLATERS) {
+            deflaters.offer(deflater);
+        } else {
+            pooledDeflaters.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compressed body being built from segments. The checksum of the gzip and zlib formats is computed on the
+     * whole uncompressed body.
+     */
+    public static final class Body {
+        private final byte uncompressed[];
+        private final boolean isGzip;
+        private byte output[];
+        private int length;
+
+        /**
+         * Starts a compressed body
+         * @param uncompressed the whole uncompressed body
+         * @param encoding GZIP or DEFLATE
+         * @param expectedLength the expected compressed length, the body grows if needed
+         */
+        public Body(byte uncompressed[], String encoding, int expectedLength) {
+            this.uncompressed = uncompressed;
+            this.isGzip = encoding.equals(GZIP);
+            this.output = new byte[expectedLength + GZIP_HEADER.length + GZIP_TRAILER_LENGTH];
+            append(isGzip ? GZIP_HEADER : ZLIB_HEADER);
+        }
+
+        /**
+         * Adds a segment compressed in advance with deflateSegment
+         * @param segment the raw deflate segment
+         */
+        public void append(byte segment[]) {
+            ensureCapacity(segment.length);
+            System.arraycopy(segment, 0, output, length, segment.length);
+            length += segment.length;
+        }
+
+        /**
+         * Compresses a part of the uncompressed body
+         * @param start index of the first byte
+         * @param end index after the last byte
+         * @param isLast true if this part ends the body
+         */
+        public void deflate(int start, int end, boolean isLast) {
+            Deflater deflater = takeDeflater();
+            try {
+                deflater.setInput(uncompressed, start, end - start);
+                if (isLast)
+                    deflater.finish();
+                int flush = isLast ? Deflater.NO_FLUSH : Deflater.FULL_FLUSH;
+                while (true) {
+                    ensureCapacity(64);
+                    int written = deflater.deflate(output, length, output.length - length, flush);
+                    length += written;
+                    boolean isDone = isLast ? deflater.finished() : deflater.needsInput() && length < output.length;
+                    if (isDone)
+                        break;
+                    ensureCapacity(output.length);
+                }
+            } finally {
+                giveBackDeflater(deflater);
+            }
+        }
+
+        /**
+         * Ends the body with its checksum
+         * @return the compressed body
+         */
+        public byte[] finish() {
+            ensureCapacity(GZIP_TRAILER_LENGTH);
+            if (isGzip) {
+                CRC32 crc = new CRC32();
+                crc.update(uncompressed);
+                writeLittleEndian((int) crc.getValue());
+                writeLittleEndian(uncompressed.length);
+            } else {
+                Adler32 adler = new Adler32();
+                adler.update(uncompressed);
+                int checksum = (int) adler.getValue();
+                output[length++] = (byte) (checksum >>> 24);
+                output[length++] = (byte) (checksum >>> 16);
+                output[length++] = (byte) (checksum >>> 8);
+                output[length++] = (byte) checksum;
+            }
+
+            if (length == output.length)
+                return output;
+            byte body[] = new byte[length];
+            System.arraycopy(output, 0, body, 0, length);
+            return body;
+        }
+
+        private void writeLittleEndian(int value) {
+            output[length++] = (byte) value;
+            output[length++] = (byte) (value >>> 8);
+            output[length++] = (byte) (value >>> 16);
+            output[length++] = (byte) (value >>> 24);
+        }
+
+        private void ensureCapacity(int needed) {
+            if (length + needed > output.length) {
+                byte bigger[] = new byte[Math.max(output.length * 2, length + needed)];
+                System.arraycopy(output, 0, bigger, 0, length);
+                output = bigger;
+            }
+        }
+    }
+}
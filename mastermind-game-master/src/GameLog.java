@@ -0,0 +1,445 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead log of the games, so a restart does not lose the games being played. Every game created, every
+ * guess and every game removed is appended as a fixed 32 bytes record :
+ * type (1 create, 2 guess, 3 remove), argument (variant id or try index), value (secret or guess, 4 bytes),
+ * game ID (26 ASCII bytes).
+ * The records are appended in memory and a flusher thread writes them to the file and syncs it every few
+ * milliseconds, for all the guesses of that time at once : a guess never waits for the disk, a crash loses at
+ * most the last flush interval. The records go to one of several buffers chosen by the game ID, each with its
+ * own lock, so the threads rarely wait for each other and the records of a game stay in order.
+ * The log is split in segments (wal-N.log). When a segment gets big, every game is written to a snapshot
+ * (snapshot-N.bin) and the older files are deleted. On startup the latest snapshot is loaded and the segments
+ * written since are replayed.
+ */
+public class GameLog {
+    public static final int RECORD_LENGTH = 32;
+
+    private static final byte TYPE_CREATE = 1;
+    private static final byte TYPE_GUESS = 2;
+    private static final byte TYPE_REMOVE = 3;
+
+    private static final int SNAPSHOT_MAGIC = 0x4D4D5331;
+    private static final int SNAPSHOT_GAME_HEADER = HttpConstant.COOKIE_ID_LENGTH + 6;
+
+    private static final long FLUSH_INTERVAL_NANOS = 10_000_000;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int STRIPES = 16;
+    private static final int STRIPE_BUFFER_SIZE = BUFFER_SIZE / STRIPES;
+    //Size of a segment triggering a snapshot
+    private static final long SNAPSHOT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+    //Taken before the locks of the stripes, held while writing to the file
+    private final Object channelLock = new Object();
+    private FileChannel channel;
+    private long sequence;
+    private volatile long segmentBytes = 0;
+
+    private final Stripe stripes[] = new Stripe[STRIPES];
+    //The buffers of the stripes being written, used by the flush only
+    private final ByteBuffer writing[] = new ByteBuffer[STRIPES];
+    private final Thread flusher = new Thread(this::runFlusher, "game-log-flusher");
+    private volatile boolean isClosed = false;
+    //Games restored by open and the time it took, given in the startup banner
+    private int recoveredGames;
+    private long recoveryMillis;
+
+    private GameLog(Path directory, long sequence) throws IOException {
+        this.directory = directory;
+        this.sequence = sequence;
+        this.channel = openSegment(sequence);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        flusher.setDaemon(true);
+    }
+
+    /**
+     * Restores the games of a log directory in a store, then starts logging the changes of the store
+     * @param directory the log directory, created if needed
+     * @param store the empty game store
+     * @return the log attached to the store
+     * @throws IOException if the directory can not be read or written
+     */
+    public static GameLog open(Path directory, SessionStore store) throws IOException {
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+
+        List<Long> snapshots = new ArrayList<>();
+        List<Long> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMPORARY_SUFFIX)) {
+                    //Snapshot interrupted by a crash
+                    Files.delete(file);
+                }
+                else if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)) {
+                    snapshots.add(parseSequence(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+                }
+                else if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+                    segments.add(parseSequence(name, LOG_PREFIX, LOG_SUFFIX));
+                }
+            }
+        }
+        Collections.sort(segments);
+
+        //The games go straight to the store, which does not log anything yet
+        long snapshotSequence = snapshots.isEmpty() ? -1 : Collections.max(snapshots);
+        if (snapshotSequence != -1) {
+            readSnapshot(directory.resolve(fileName(SNAPSHOT_PREFIX, snapshotSequence, SNAPSHOT_SUFFIX)), store);
+        }
+        long lastSequence = snapshotSequence;
+        for (long segment : segments) {
+            if (segment >= snapshotSequence) {
+                replaySegment(directory.resolve(fileName(LOG_PREFIX, segment, LOG_SUFFIX)), store);
+            }
+            lastSequence = Math.max(lastSequence, segment);
+        }
+        GameLog log = new GameLog(directory, lastSequence + 1);
+        log.recoveredGames = store.size();
+        log.recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+        store.setLog(log);
+        log.flusher.start();
+
+        //The next startup only reads this snapshot
+        log.snapshot(store);
+        return log;
+    }
+
+    /**
+     * Describes the recovery done when the log was opened
+     * @return the number of games restored, from which directory and in how long
+     */
+    public String getRecoverySummary() {
+        return "recovered " + recoveredGames + " games from " + directory + " in " + recoveryMillis + " ms";
+    }
+
+    /**
+     * Logs a new game
+     * @param game the game, already in the store
+     */
+    public void appendCreate(Mastermind game) {
+        append(TYPE_CREATE, game.variant.id, game.getSecretValues(), game.gameId);
+    }
+
+    /**
+     * Logs a guess
+     * @param gameId the game ID
+     * @param tryIndex the index of the round of the guess
+     * @param values the packed combination
+     */
+    public void appendGuess(String gameId, int tryIndex, int values) {
+        append(TYPE_GUESS, tryIndex, values, gameId);
+    }
+
+    /**
+     * Logs a game removed from the store
+     * @param gameId the game ID
+     */
+    public void appendRemove(String gameId) {
+        append(TYPE_REMOVE, 0, 0, gameId);
+    }
+
+    private void append(byte type, int argument, int value, String gameId) {
+        Stripe stripe = stripes[(gameId.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(STRIPES))];
+        synchronized (stripe) {
+            //Only waits if the flusher is behind by a whole buffer of this stripe
+            while (stripe.active.remaining() < RECORD_LENGTH && !isClosed) {
+                LockSupport.unpark(flusher);
+                try {
+                    stripe.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (isClosed)
+                return;
+
+            ByteBuffer active = stripe.active;
+            active.put(type).put((byte) argument).putInt(value);
+            for (int i = 0; i < HttpConstant.COOKIE_ID_LENGTH; i++) {
+                active.put((byte) gameId.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the records appended so far to the file, every stripe in a single gathering write, and syncs it
+     */
+    public void flush() {
+        synchronized (channelLock) {
+            int count = 0;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    if (stripe.active.position() == 0)
+                        continue;
+                    ByteBuffer data = stripe.active;
+                    stripe.active = stripe.spare;
+                    stripe.spare = data;
+                    stripe.notifyAll();
+                    data.flip();
+                    writing[count++] = data;
+                }
+            }
+            if (count == 0)
+                return;
+
+            try {
+                long written = 0;
+                while (writing[count - 1].hasRemaining()) {
+                    written += channel.write(writing, 0, count);
+                }
+                //The content is enough, the file metadata is not needed to read the records back
+                channel.force(false);
+                segmentBytes += written;
+            } catch (IOException e) {
+                System.err.println("Error while writing the game log : " + e.getMessage());
+            }
+            //The spare buffers are only swapped again by the next flush, under the same lock
+            for (int i = 0; i < count; i++) {
+                writing[i].clear();
+                writing[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot when the current segment is too big. Called by the game manager thread.
+     * @param store the game store
+     */
+    public void snapshotIfNeeded(SessionStore store) {
+        if (segmentBytes < SNAPSHOT_SEGMENT_BYTES)
+            return;
+        try {
+            snapshot(store);
+        } catch (IOException e) {
+            System.err.println("Error while writing the game snapshot : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a new segment, writes every game of the store to a snapshot, then deletes the older files.
+     * A change logged in the new segment can also be in the snapshot, replaying it again has no effect.
+     * @param store the game store
+     * @throws IOException if the snapshot can not be written
+     */
+    public void snapshot(SessionStore store) throws IOException {
+        long snapshotSequence;
+        synchronized (channelLock) {
+            flush();
+            channel.close();
+            sequence++;
+            channel = openSegment(sequence);
+            segmentBytes = 0;
+            snapshotSequence = sequence;
+        }
+
+        Path file = directory.resolve(fileName(SNAPSHOT_PREFIX, snapshotSequence, SNAPSHOT_SUFFIX));
+        Path temporary = directory.resolve(file.getFileName() + TEMPORARY_SUFFIX);
+        try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            IOException errors[] = new IOException[1];
+            store.forEach(game -> {
+                try {
+                    if (buffer.remaining() < SNAPSHOT_GAME_HEADER + 4 * game.variant.maxTries)
+                        writeAll(output, buffer);
+                    writeGame(buffer, game);
+                } catch (IOException e) {
+                    errors[0] = e;
+                }
+            });
+            if (errors[0] != null)
+                throw errors[0];
+            writeAll(output, buffer);
+            output.force(true);
+        }
+        //A snapshot is either complete or not there
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path old : (Iterable<Path>) files::iterator) {
+                String name = old.getFileName().toString();
+                boolean isOld = name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)
+                        && parseSequence(name, LOG_PREFIX, LOG_SUFFIX) < snapshotSequence
+                        || name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)
+                        && parseSequence(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < snapshotSequence;
+                if (isOld)
+                    Files.delete(old);
+            }
+        }
+    }
+
+    /**
+     * Writes the last records and closes the file. Called when the server stops.
+     */
+    public void close() {
+        synchronized (channelLock) {
+            if (isClosed)
+                return;
+            flush();
+            isClosed = true;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.notifyAll();
+                }
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error while closing the game log : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Group commit : the records of every interval are written and synced at once
+     */
+    private void runFlusher() {
+        //Woken up early by an append finding its stripe full
+        while (!isClosed && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+            if (!isClosed)
+                flush();
+        }
+    }
+
+    private FileChannel openSegment(long sequence) throws IOException {
+        return FileChannel.open(directory.resolve(fileName(LOG_PREFIX, sequence, LOG_SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Snapshot of a game : game ID, variant id, tries, secret, then the combination of every round. Read under
+     * the lock of the game, so its rounds are seen as they were when they were logged.
+     */
+    private static void writeGame(ByteBuffer buffer, Mastermind game) {
+        for (int i = 0; i < HttpConstant.COOKIE_ID_LENGTH; i++) {
+            buffer.put((byte) game.gameId.charAt(i));
+        }
+        synchronized (game) {
+            int tries = game.nbOfTry;
+            buffer.put((byte) game.variant.id).put((byte) tries).putInt(game.getSecretValues());
+            for (int i = 0; i < tries; i++) {
+                buffer.putInt(Mastermind.getGuess(game.roundValues[i]));
+            }
+        }
+    }
+
+    private static void writeAll(FileChannel output, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void readSnapshot(Path file, SessionStore store) throws IOException {
+        MappedByteBuffer data = map(file);
+        if (data.remaining() < 4 || data.getInt() != SNAPSHOT_MAGIC)
+            throw new IOException("invalid snapshot " + file);
+
+        byte id[] = new byte[HttpConstant.COOKIE_ID_LENGTH];
+        while (data.remaining() >= SNAPSHOT_GAME_HEADER) {
+            data.get(id);
+            GameVariant variant = GameVariant.fromId(data.get());
+            int tries = data.get();
+            int secret = data.getInt();
+            if (variant == null || tries < 0 || tries > variant.maxTries || data.remaining() < 4 * tries)
+                throw new IOException("invalid snapshot " + file);
+
+            Mastermind game = new Mastermind(variant, new String(id, StandardCharsets.US_ASCII), secret);
+            for (int i = 0; i < tries; i++) {
+                game.addNewRoundValues(data.getInt());
+            }
+            store.restore(game);
+        }
+    }
+
+    /**
+     * Applies the records of a segment. The end of the last segment can be a record cut by a crash, it is
+     * ignored.
+     */
+    private static void replaySegment(Path file, SessionStore store) throws IOException {
+        MappedByteBuffer data = map(file);
+        byte id[] = new byte[HttpConstant.COOKIE_ID_LENGTH];
+        while (data.remaining() >= RECORD_LENGTH) {
+            byte type = data.get();
+            int argument = data.get() & 0xFF;
+            int value = data.getInt();
+            data.get(id);
+            String gameId = new String(id, StandardCharsets.US_ASCII);
+
+            switch (type) {
+                case TYPE_CREATE:
+                    GameVariant variant = GameVariant.fromId(argument);
+                    if (variant != null && store.get(gameId) == null)
+                        store.restore(new Mastermind(variant, gameId, value));
+                    break;
+                case TYPE_GUESS:
+                    //Already in the snapshot if the game has this round
+                    Mastermind game = store.get(gameId);
+                    if (game != null && game.nbOfTry == argument)
+                        game.addNewRoundValues(value);
+                    break;
+                case TYPE_REMOVE:
+                    store.remove(gameId);
+                    break;
+                default:
+                    //Not a record, the segment ends here
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Records of the games of a stripe not written yet, and the buffer being written
+     */
+    private static class Stripe {
+        ByteBuffer active = ByteBuffer.allocateDirect(STRIPE_BUFFER_SIZE);
+        ByteBuffer spare = ByteBuffer.allocateDirect(STRIPE_BUFFER_SIZE);
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            return input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+        }
+    }
+
+    private static String fileName(String prefix, long sequence, String suffix) {
+        return prefix + String.format("%012d", sequence) + suffix;
+    }
+
+    private static long parseSequence(String name, String prefix, String suffix) {
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
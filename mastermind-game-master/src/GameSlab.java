@@ -0,0 +1,262 @@
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Games not played for a while, kept outside of the heap. Every game is serialized in a fixed 128 bytes slot
+ * of a direct buffer :
+ * hash (4), previous and next slot (4 + 4), last access time (8), secret (4), variant id (1), tries (1),
+ * game ID (26 ASCII bytes), then the combination of every round (4 bytes each, up to 16 rounds).
+ * The slots are found through an open addressing table of slot numbers and linked from the least to the
+ * most recently used game, so the GC has a single buffer and two int arrays to look at whatever the number
+ * of games. A game is rebuilt on the heap when its player comes back.
+ * Not thread safe : every slab belongs to a segment of the SessionStore and is used under its lock.
+ */
+public class GameSlab {
+    public static final int SLOT_LENGTH = 128;
+
+    private static final int NONE = -1;
+
+    //Offsets in a slot
+    private static final int HASH = 0;
+    private static final int PREVIOUS = 4;
+    private static final int NEXT = 8;
+    private static final int LAST_ACCESS_TIME = 12;
+    private static final int SECRET = 20;
+    private static final int VARIANT = 24;
+    private static final int TRIES = 25;
+    private static final int GAME_ID = 26;
+    private static final int GUESSES = GAME_ID + HttpConstant.COOKIE_ID_LENGTH;
+
+    private final ByteBuffer slots;
+    private final int capacity;
+    //Slot number + 1 of the games, 0 for an empty entry
+    private final int index[];
+    private final int indexShift;
+    private final int freeSlots[];
+    private int freeCount;
+
+    private int head = NONE;
+    private int tail = NONE;
+    private int size = 0;
+
+    /**
+     * Public constructor, allocates all the slots
+     * @param capacity the maximum number of games
+     */
+    public GameSlab(int capacity) {
+        this.capacity = capacity;
+        this.slots = ByteBuffer.allocateDirect(capacity * SLOT_LENGTH);
+
+        //At most half full, so the probe sequences stay short
+        int bits = 1;
+        while ((1 << bits) < 2 * capacity)
+            bits++;
+        this.index = new int[1 << bits];
+        this.indexShift = 32 - bits;
+
+        this.freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeSlots[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+    }
+
+    /**
+     * Getter for the number of games
+     * @return the number of games in the slab
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Moves a game in the slab. The least recently used game of the slab is dropped if it is full.
+     * @param game the game, not in the slab yet, its player is not using it
+     * @return the ID of the dropped game, null if none
+     */
+    public String park(Mastermind game) {
+        String dropped = null;
+        if (size == capacity) {
+            int oldest = head;
+            dropped = readGameId(oldest);
+            removeSlot(oldest, find(dropped));
+        }
+
+        int slot = freeSlots[--freeCount];
+        int base = slot * SLOT_LENGTH;
+        int hash = game.gameId.hashCode();
+        slots.putInt(base + HASH, hash);
+        slots.putLong(base + LAST_ACCESS_TIME, game.lastAccessTime);
+        slots.putInt(base + SECRET, game.getSecretValues());
+        slots.put(base + VARIANT, (byte) game.variant.id);
+        slots.put(base + TRIES, (byte) game.nbOfTry);
+        for (int i = 0; i < HttpConstant.COOKIE_ID_LENGTH; i++) {
+            slots.put(base + GAME_ID + i, (byte) game.gameId.charAt(i));
+        }
+        for (int i = 0; i < game.nbOfTry; i++) {
+            slots.putInt(base + GUESSES + 4 * i, Mastermind.getGuess(game.roundValues[i]));
+        }
+
+        //Most recently used at the tail
+        slots.putInt(base + PREVIOUS, tail);
+        slots.putInt(base + NEXT, NONE);
+        if (tail != NONE)
+            slots.putInt(tail * SLOT_LENGTH + NEXT, slot);
+        else
+            head = slot;
+        tail = slot;
+
+        int position = hashPosition(hash);
+        while (index[position] != 0)
+            position = (position + 1) & (index.length - 1);
+        index[position] = slot + 1;
+        size++;
+        return dropped;
+    }
+
+    /**
+     * Takes a game out of the slab
+     * @param gameId the game ID
+     * @return the game rebuilt on the heap, null if it is not in the slab
+     */
+    public Mastermind unpark(String gameId) {
+        int position = find(gameId);
+        if (position == NONE)
+            return null;
+
+        int slot = index[position] - 1;
+        Mastermind game = readGame(slot, gameId);
+        removeSlot(slot, position);
+        return game;
+    }
+
+    /**
+     * Tells if a game is in the slab
+     * @param gameId the game ID
+     * @return true if the game is in the slab
+     */
+    public boolean contains(String gameId) {
+        return find(gameId) != NONE;
+    }
+
+    /**
+     * Deletes a game
+     * @param gameId the game ID
+     * @return true if the game was in the slab
+     */
+    public boolean remove(String gameId) {
+        int position = find(gameId);
+        if (position == NONE)
+            return false;
+        removeSlot(index[position] - 1, position);
+        return true;
+    }
+
+    /**
+     * Deletes the least recently used game if it is expired
+     * @param now the current System.nanoTime()
+     * @param maxSessionTimeNanos the time a game stays alive without being used
+     * @return the ID of the deleted game, null if the least recently used game is not expired
+     */
+    public String pollExpired(long now, long maxSessionTimeNanos) {
+        if (head == NONE || now - slots.getLong(head * SLOT_LENGTH + LAST_ACCESS_TIME) <= maxSessionTimeNanos)
+            return null;
+
+        String gameId = readGameId(head);
+        removeSlot(head, find(gameId));
+        return gameId;
+    }
+
+    /**
+     * Calls an action on a copy of every game, from the least to the most recently used one
+     * @param action the action
+     */
+    public void forEach(Consumer<Mastermind> action) {
+        for (int slot = head; slot != NONE; slot = slots.getInt(slot * SLOT_LENGTH + NEXT)) {
+            action.accept(readGame(slot, readGameId(slot)));
+        }
+    }
+
+    private Mastermind readGame(int slot, String gameId) {
+        int base = slot * SLOT_LENGTH;
+        GameVariant variant = GameVariant.fromId(slots.get(base + VARIANT));
+        Mastermind game = new Mastermind(variant, gameId, slots.getInt(base + SECRET));
+        int tries = slots.get(base + TRIES);
+        for (int i = 0; i < tries; i++) {
+            game.addNewRoundValues(slots.getInt(base + GUESSES + 4 * i));
+        }
+        game.lastAccessTime = slots.getLong(base + LAST_ACCESS_TIME);
+        return game;
+    }
+
+    private String readGameId(int slot) {
+        char id[] = new char[HttpConstant.COOKIE_ID_LENGTH];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = (char) slots.get(slot * SLOT_LENGTH + GAME_ID + i);
+        }
+        return new String(id);
+    }
+
+    /**
+     * Finds the index entry of a game
+     * @return the position in the index, NONE if the game is not in the slab
+     */
+    private int find(String gameId) {
+        if (gameId.length() != HttpConstant.COOKIE_ID_LENGTH)
+            return NONE;
+
+        int hash = gameId.hashCode();
+        for (int position = hashPosition(hash); index[position] != 0; position = (position + 1) & (index.length - 1)) {
+            int base = (index[position] - 1) * SLOT_LENGTH;
+            if (slots.getInt(base + HASH) == hash && hasGameId(base, gameId))
+                return position;
+        }
+        return NONE;
+    }
+
+    private boolean hasGameId(int base, String gameId) {
+        for (int i = 0; i < HttpConstant.COOKIE_ID_LENGTH; i++) {
+            if (slots.get(base + GAME_ID + i) != gameId.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Unlinks a slot, deletes its index entry and frees it
+     */
+    private void removeSlot(int slot, int position) {
+        int base = slot * SLOT_LENGTH;
+        int previous = slots.getInt(base + PREVIOUS);
+        int next = slots.getInt(base + NEXT);
+        if (previous != NONE)
+            slots.putInt(previous * SLOT_LENGTH + NEXT, next);
+        else
+            head = next;
+        if (next != NONE)
+            slots.putInt(next * SLOT_LENGTH + PREVIOUS, previous);
+        else
+            tail = previous;
+
+        //Shifts back the next entries of the probe sequence, so no entry is left behind an empty one
+        int mask = index.length - 1;
+        int empty = position;
+        for (int current = (empty + 1) & mask; index[current] != 0; current = (current + 1) & mask) {
+            int wanted = hashPosition(slots.getInt((index[current] - 1) * SLOT_LENGTH + HASH));
+            if (((current - wanted) & mask) >= ((current - empty) & mask)) {
+                index[empty] = index[current];
+                empty = current;
+            }
+        }
+        index[empty] = 0;
+
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    private int hashPosition(int hash) {
+        //Fibonacci hashing : the segments already use the low bits of the hash
+        return (hash * 0x9E3779B9) >>> indexShift;
+    }
+}
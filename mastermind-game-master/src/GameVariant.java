@@ -0,0 +1,84 @@
+
+import java.util.HashMap;
+
+/**
+ * Shape of a game : number of pegs, number of colors and maximum number of tries. The classic game has
+ * 4 pegs, 6 colors and 12 tries, the harder variants go up to 8 pegs and 10 colors.
+ */
+public class GameVariant {
+    public static final String ALL_COLORS[] = {"red", "blue", "yellow", "green", "white", "black",
+                                               "orange", "purple", "pink", "brown"};
+    public static final int MAXIMUM_NUMBER_OF_PEGS = 8;
+
+    public static final GameVariant CLASSIC = new GameVariant(0, "classic", 4, 6, 12);
+    public static final GameVariant SUPER = new GameVariant(1, "super", 5, 8, 12);
+    public static final GameVariant EXPERT = new GameVariant(2, "expert", 6, 9, 14);
+    public static final GameVariant GRAND = new GameVariant(3, "grand", 8, 10, 16);
+
+    //Indexed by the variant id
+    private static final GameVariant ALL_VARIANTS[] = {CLASSIC, SUPER, EXPERT, GRAND};
+
+    private static final HashMap<String, GameVariant> VARIANTS = new HashMap<>();
+    private static final HashMap<String, Integer> COLOR_INDEXES = new HashMap<>();
+    static {
+        for (GameVariant variant : ALL_VARIANTS) {
+            VARIANTS.put(variant.name, variant);
+        }
+        for (int i = 0; i < ALL_COLORS.length; i++) {
+            COLOR_INDEXES.put(ALL_COLORS[i], i);
+        }
+    }
+
+    //Number of the variant in the game log
+    public final int id;
+    public final String name;
+    public final int pegs;
+    public final int colors;
+    public final int maxTries;
+    public final String colorNames[];
+    //Names of the request parameters holding the colors : color1, color2, ...
+    public final String colorParameters[];
+
+    private GameVariant(int id, String name, int pegs, int colors, int maxTries) {
+        this.id = id;
+        this.name = name;
+        this.pegs = pegs;
+        this.colors = colors;
+        this.maxTries = maxTries;
+
+        this.colorNames = new String[colors];
+        System.arraycopy(ALL_COLORS, 0, colorNames, 0, colors);
+        this.colorParameters = new String[pegs];
+        for (int i = 0; i < pegs; i++) {
+            colorParameters[i] = "color" + (i + 1);
+        }
+    }
+
+    /**
+     * Finds a variant from its name
+     * @param name the variant name, can be null
+     * @return the variant, or null if the name is unknown
+     */
+    public static GameVariant fromName(String name) {
+        return name == null ? null : VARIANTS.get(name);
+    }
+
+    /**
+     * Finds a variant from its id
+     * @param id the variant id
+     * @return the variant, or null if the id is unknown
+     */
+    public static GameVariant fromId(int id) {
+        return id < 0 || id >= ALL_VARIANTS.length ? null : ALL_VARIANTS[id];
+    }
+
+    /**
+     * Finds the index of a color of this variant
+     * @param color the color name, can be null
+     * @return the color index, or -1 if the color is not part of this variant
+     */
+    public int getColorIndex(String color) {
+        Integer index = color == null ? null : COLOR_INDEXES.get(color);
+        return index == null || index >= colors ? -1 : index;
+    }
+}
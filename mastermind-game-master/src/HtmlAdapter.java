@@ -1,8 +1,26 @@
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Responsible to generate the html page that will be shown to the user.
  */
 public class HtmlAdapter implements IHttpAdapter {
+    private static final String FEEDBACK_COLORS[] = {"red", "white", "gray"};
+    private static final int FEEDBACK_GOOD_POSITION = 0;
+    private static final int FEEDBACK_GOOD_COLOR = 1;
+    private static final int FEEDBACK_NONE = 2;
+
+    //Pages of the game variants, pre-rendered the first time a variant is played
+    private static final ConcurrentHashMap<GameVariant, Template> templates = new ConcurrentHashMap<>();
+
+    public String getPageContentType() {
+        return "text/html";
+    }
+
+    public String getRoundContentType() {
+        return "text/plain";
+    }
 
     /**
      * Generates the final html (header and body) as a simple string to
@@ -11,21 +29,104 @@ public class HtmlAdapter implements IHttpAdapter {
      * @return the html as a single string
      */
     public String generateStringFromMastermind(Mastermind game) {
-        StringBuilder html = new StringBuilder();
-        html.append("<!doctype html>");
-        html.append("<html lang=\"en\" style=\"height:100%;\">");
-        html.append(generateHtmlHeaderFile());
-        html.append(generateHtmlBody(game));
-        html.append("</html>");
-
-        return html.toString();
+        return new String(generateBytesFromMastermind(game), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates the final html (header and body) encoded in UTF-8. Only copies the pre-rendered parts of the
+     * page : the static parts and a fragment per circle of the board.
+     * @param game the mastermind game object
+     * @return the html bytes
+     */
+    public byte[] generateBytesFromMastermind(Mastermind game) {
+        return templates.computeIfAbsent(game.variant, this::generateTemplate).render(game);
+    }
+
+    /**
+     * Generates the final html (header and body) encoded in UTF-8, then compressed. The static parts of the
+     * page are compressed once with the template, only the board is compressed for every page.
+     * @param game the mastermind game object
+     * @param contentEncoding ContentEncoding.GZIP, DEFLATE or IDENTITY
+     * @return the encoded html bytes
+     */
+    public byte[] generateBytesFromMastermind(Mastermind game, String contentEncoding) {
+        return templates.computeIfAbsent(game.variant, this::generateTemplate).render(game, contentEncoding);
+    }
+
+    /**
+     * Generates the result of a round read by the javascript of the page : the number of rounds played, of
+     * good and well placed colors and of good colors, separated by underscores.
+     * @param game the mastermind game object
+     * @param round the packed round
+     * @return the result as ASCII text
+     */
+    public byte[] generateBytesFromRound(Mastermind game, long round) {
+        String result = Mastermind.getTries(round) + "_" + Mastermind.getGoodColorAndPosition(round) + "_" + Mastermind.getGoodColors(round);
+        return result.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Pre-renders the page of a game variant. Everything but the board and the end of game label is the
+     * same for every game of the variant.
+     * @param variant the shape of the game
+     * @return the template of the page
+     */
+    private Template generateTemplate(GameVariant variant) {
+        Template template = new Template(variant);
+
+        StringBuilder pageStart = new StringBuilder();
+        pageStart.append("<!doctype html>");
+        pageStart.append("<html lang=\"en\" style=\"height:100%;\">");
+        pageStart.append(generateHtmlHeaderFile(variant));
+        pageStart.append(generateHtmlBodyStart());
+        pageStart.append("<div class=\"col-md-8\">");
+        template.pageStart = encode(pageStart);
+
+        for (int i = 0; i < variant.maxTries; i++) {
+            template.rowStarts[i] = encode("<div class=\"row row-circle\">" + "<div class=\"" + getOffsetColumn(variant) + "\"></div>");
+            for (int j = 0; j < variant.pegs; j++) {
+                for (int color = 0; color <= variant.colors; color++) {
+                    String colorName = color < variant.colors ? variant.colorNames[color] : "gray";
+                    template.circles[i][j][color] = encode("<div class=\"" + getCircleColumn(variant) + "\"><div id=\"circle_" + (i+1) + "_" + (j+1) + "\" class=\"circle " + colorName + "\"></div></div>");
+                }
+                for (int feedback = 0; feedback < FEEDBACK_COLORS.length; feedback++) {
+                    template.feedbacks[i][j][feedback] = encode("<div class=\"" + getCircleColumn(variant) + "\"><div id=\"mcircle_" + (i+1) + "_" + (j+1) + "\" class=\"small-circle " + FEEDBACK_COLORS[feedback] + "\"></div></div>");
+                }
+            }
+        }
+        template.rowEnd = encode("</div>");
+
+        StringBuilder selection = new StringBuilder();
+        selection.append("</div>");
+        selection.append(generateHtmlBodyColorSelection(variant));
+        template.selection = encode(selection);
+        template.wonLabel = encode(generateHtmlEndOfGame(true));
+        template.lostLabel = encode(generateHtmlEndOfGame(false));
+
+        StringBuilder pageEnd = new StringBuilder();
+        pageEnd.append(generateHtmlBodyEnd());
+        pageEnd.append("</html>");
+        template.pageEnd = encode(pageEnd);
+
+        template.compressedPageStart = ContentEncoding.deflateSegment(template.pageStart, false);
+        template.compressedSelection = ContentEncoding.deflateSegment(template.selection, false);
+        template.compressedWonLabel = ContentEncoding.deflateSegment(template.wonLabel, false);
+        template.compressedLostLabel = ContentEncoding.deflateSegment(template.lostLabel, false);
+        template.compressedPageEnd = ContentEncoding.deflateSegment(template.pageEnd, true);
+
+        return template;
+    }
+
+    private static byte[] encode(CharSequence html) {
+        return html.toString().getBytes(StandardCharsets.UTF_8);
     }
 
     /**
      * Generates the html page header
+     * @param variant the shape of the game
      * @return html header as a string
      */
-    private String generateHtmlHeaderFile() {
+    private String generateHtmlHeaderFile(GameVariant variant) {
         StringBuilder header = new StringBuilder();
 
         header.append("<head>");
@@ -34,8 +135,8 @@ public class HtmlAdapter implements IHttpAdapter {
             header.append("<link rel=\"stylesheet\" href=\"https://maxcdn.bootstrapcdn.com/bootstrap/4.0.0/css/bootstrap.min.css\" integrity=\"sha384-Gn5384xqQ1aoWXA+058RXPxPg6fy4IWvTNh0E263XmFcJlSAwiGgFAW/dAiS6JXm\" crossorigin=\"anonymous\">");
             header.append("<link rel=\"icon\" href=\"https://apprecs.org/ios/images/app-icons/256/79/318226297.jpg\">");
 
-            header.append(generateHtmlJavaScript(Mastermind.GAME_COLORS));
-            header.append(generateHtmlCss(Mastermind.GAME_COLORS));
+            header.append(generateHtmlJavaScript(variant));
+            header.append(generateHtmlCss(variant.colorNames));
         header.append("</head>");
 
         return header.toString();
@@ -43,10 +144,10 @@ public class HtmlAdapter implements IHttpAdapter {
 
     /**
      * Generates the javascript for the html page
-     * @param gameColors string array containing color names
+     * @param variant the shape of the game, holding the color names
      * @return the html javascript as a single string
      */
-    private String generateHtmlJavaScript(String gameColors[]) {
+    private String generateHtmlJavaScript(GameVariant variant) {
         StringBuilder script = new StringBuilder();
         script.append("<noscript><style> .jsonly { display: none } </style></noscript>");
 
@@ -54,16 +155,15 @@ public class HtmlAdapter implements IHttpAdapter {
 
             script.append("var colors = [");
             String array = "";
-            for (String color : gameColors) {
+            for (String color : variant.colorNames) {
                 array += "\"" + color + "\", ";
             }
             array = array.substring(0, array.length() - 2);
             array += "];";
             script.append(array);
-            script.append("var color1 = 0;");
-            script.append("var color2 = 0;");
-            script.append("var color3 = 0;");
-            script.append("var color4 = 0;");
+            for (String colorParameter : variant.colorParameters) {
+                script.append("var " + colorParameter + " = 0;");
+            }
             script.append("var rounds = 1;");
 
             script.append("function chooseColor(element, colorIndex) {");
@@ -74,49 +174,71 @@ public class HtmlAdapter implements IHttpAdapter {
                 script.append("$(element).addClass(colors[window[colorIndex]]);");
             script.append("}");
 
+            script.append("function showRound(result) {");
+                script.append("var res = result.split('_');");
+                script.append("rounds = res[0];");
+                script.append("var goodPos = res[1];");
+                script.append("var goodCol = res[2];");
+                script.append("var overallIndex = 0;");
+
+                for (int i = 1; i <= variant.pegs; i++) {
+                    script.append("$( \"#circle_\" + rounds + \"_" + i + "\").removeClass('gray').addClass(colors[color" + i + "]);");
+                }
+
+                script.append("if (goodPos == " + variant.pegs + ") {");
+                    script.append("$(\"#submit_javascript\").addClass(\"disabled\");");
+                    script.append("$(\"#submit_javascript\").prop(\"disabled\",true);");
+                    script.append("$(\"#winLabel\").prop(\"hidden\",false);");
+                    script.append("$(\"#newGame_javascript\").prop(\"hidden\",false);");
+                script.append("}");
+                script.append("else if (rounds == " + variant.maxTries + ") {");
+                    script.append("$(\"#submit_javascript\").addClass(\"disabled\");");
+                    script.append("$(\"#submit_javascript\").prop(\"disabled\",true);");
+                    script.append("$(\"#lostLabel\").prop(\"hidden\",false);");
+                    script.append("$(\"#newGame_javascript\").prop(\"hidden\",false);");
+                script.append("}");
+
+                script.append("while (goodPos != 0) {");
+                    script.append("goodPos--;");
+                    script.append("overallIndex++;");
+                    script.append("$( \"#mcircle_\" + rounds + \"_\" + overallIndex).removeClass('gray').addClass('red');");
+                script.append("}");
+                script.append("while (goodCol != 0) {");
+                    script.append("goodCol--;");
+                    script.append("overallIndex++;");
+                    script.append("$( \"#mcircle_\" + rounds + \"_\" + overallIndex).removeClass('gray').addClass('white');");
+                script.append("}");
+            script.append("}");
+
+            //The guesses go through a WebSocket bound to the game, or through a request if it is not open
+            script.append("var socket = null;");
+            script.append("if (window.WebSocket) {");
+                script.append("socket = new WebSocket((location.protocol == \"https:\" ? \"wss://\" : \"ws://\") + location.host + \"/play.html\");");
+                script.append("socket.onmessage = function(event) { showRound(event.data); };");
+                script.append("socket.onclose = function() { socket = null; };");
+            script.append("}");
+
             script.append("function sendColor() {");
+                script.append("if (socket !== null && socket.readyState == 1) {");
+                    script.append("socket.send(");
+                    for (int i = 1; i <= variant.pegs; i++) {
+                        script.append(i == 1 ? "" : " + \" \" + ").append("colors[color" + i + "]");
+                    }
+                    script.append(");");
+                    script.append("return;");
+                script.append("}");
                 script.append("var ajaxRequest = new XMLHttpRequest();");
                 script.append("ajaxRequest.onreadystatechange = function() {");
                     script.append("if (this.readyState == 4 && this.status == 200) {");
-                        script.append("var res = this.responseText.split('_');");
-                        script.append("rounds = res[0];");
-                        script.append("var goodPos = res[1];");
-                        script.append("var goodCol = res[2];");
-                        script.append("var overallIndex = 0;");
-
-                        script.append("$( \"#circle_\" + rounds + \"_1\").removeClass('gray').addClass(colors[color1]);");
-                        script.append("$( \"#circle_\" + rounds + \"_2\").removeClass('gray').addClass(colors[color2]);");
-                        script.append("$( \"#circle_\" + rounds + \"_3\").removeClass('gray').addClass(colors[color3]);");
-                        script.append("$( \"#circle_\" + rounds + \"_4\").removeClass('gray').addClass(colors[color4]);");
-
-                        script.append("if (goodPos == 4) {");
-                            script.append("$(\"#submit_javascript\").addClass(\"disabled\");");
-                            script.append("$(\"#submit_javascript\").prop(\"disabled\",true);");
-                            script.append("$(\"#winLabel\").prop(\"hidden\",false);");
-                            script.append("$(\"#newGame_javascript\").prop(\"hidden\",false);");
-                        script.append("}");
-                        script.append("else if (rounds == 12) {");
-                            script.append("$(\"#submit_javascript\").addClass(\"disabled\");");
-                            script.append("$(\"#submit_javascript\").prop(\"disabled\",true);");
-                            script.append("$(\"#lostLabel\").prop(\"hidden\",false);");
-                            script.append("$(\"#newGame_javascript\").prop(\"hidden\",false);");
-                        script.append("}");
-
-                        script.append("while (goodPos != 0) {");
-                            script.append("goodPos--;");
-                            script.append("overallIndex++;");
-                            script.append("$( \"#mcircle_\" + rounds + \"_\" + overallIndex).removeClass('gray').addClass('red');");
-                        script.append("}");
-                        script.append("while (goodCol != 0) {");
-                            script.append("goodCol--;");
-                            script.append("overallIndex++;");
-                            script.append("$( \"#mcircle_\" + rounds + \"_\" + overallIndex).removeClass('gray').addClass('white');");
-                        script.append("}");
-
+                        script.append("showRound(this.responseText);");
                     script.append("}");
                 script.append("};");
 
-                script.append("ajaxRequest.open(\"GET\", \"/play.html?color1=\" + colors[color1] + \"&color2=\" + colors[color2] + \"&color3=\" + colors[color3] + \"&color4=\" + colors[color4], true);");
+                script.append("ajaxRequest.open(\"GET\", \"/play.html?");
+                for (int i = 1; i <= variant.pegs; i++) {
+                    script.append(i == 1 ? "" : "&").append("color" + i + "=\" + colors[color" + i + "] + \"");
+                }
+                script.append("\", true);");
                 script.append("ajaxRequest.send();");
             script.append("}");
 
@@ -173,11 +295,10 @@ public class HtmlAdapter implements IHttpAdapter {
     }
 
     /**
-     * Generates the whole html body. Takes the informations from the game to adapt the colors and fields
-     * @param game the mastermind game
-     * @return the html body as a single string
+     * Generates the start of the html body, until the board.
+     * @return the start of the html body as a single string
      */
-    private String generateHtmlBody(Mastermind game) {
+    private String generateHtmlBodyStart() {
         StringBuilder body = new StringBuilder();
 
         body.append("<body style=\"background-color:beige;height:100%\">");
@@ -193,9 +314,18 @@ public class HtmlAdapter implements IHttpAdapter {
                         body.append("</div>");
                         body.append("<div class=\"row\">");
 
+        return body.toString();
+    }
 
-                            body.append(generateHtmlBodyRows(game.roundValues));
-                            body.append(generateHtmlBodyColorSelection(Mastermind.GAME_COLORS, game));
+    /**
+     * Generates the end of the html body, after the color selection.
+     * @return the end of the html body as a single string
+     */
+    private String generateHtmlBodyEnd() {
+        StringBuilder body = new StringBuilder();
+
+            body.append("</noscript>");
+        body.append("</div>");
 
                             body.append("</div>");
                         body.append("</div>");
@@ -213,71 +343,40 @@ public class HtmlAdapter implements IHttpAdapter {
     }
 
     /**
-     * Generates the body rows, which are the color circles in the left part of the UI.
-     * @param rowsValues the colors values of the current game
-     * @return the body rows as a single string
+     * Gives the grid column of a circle. The classic game keeps one column per circle, the variants with
+     * more pegs size the columns to their content to fit in a row.
+     * @param variant the shape of the game
+     * @return the css class of the column
      */
-    private String generateHtmlBodyRows(String rowsValues[]) {
-        StringBuilder rows = new StringBuilder();
-        rows.append("<div class=\"col-md-8\">");
-
-        for (int i = 0; i < Mastermind.MAXIMUM_NUMBER_OF_TRY ; i++) {
-            rows.append("<div class=\"row row-circle\">");
-            rows.append("<div class=\"col-md-3\"></div>");
-
-            if (rowsValues[i] == null || rowsValues[i].equals("")) {
-                rows.append("<div class=\"col-md-1\"><div id=\"circle_" + (i+1) + "_1\" class=\"circle gray\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"circle_" + (i+1) + "_2\" class=\"circle gray\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"circle_" + (i+1) + "_3\" class=\"circle gray\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"circle_" + (i+1) + "_4\" class=\"circle gray\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"mcircle_" + (i+1) + "_1\" class=\"small-circle gray\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"mcircle_" + (i+1) + "_2\" class=\"small-circle gray\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"mcircle_" + (i+1) + "_3\" class=\"small-circle gray\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"mcircle_" + (i+1) + "_4\" class=\"small-circle gray\"></div></div>");
-            } else {
-                rows.append("<div class=\"col-md-1\"><div id=\"circle_" + (i+1) + "_1\" class=\"circle " + Mastermind.GAME_COLORS[Integer.parseInt(rowsValues[i].substring(0, 1))] + "\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"circle_" + (i+1) + "_2\" class=\"circle " + Mastermind.GAME_COLORS[Integer.parseInt(rowsValues[i].substring(1, 2))] + "\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"circle_" + (i+1) + "_3\" class=\"circle " + Mastermind.GAME_COLORS[Integer.parseInt(rowsValues[i].substring(2, 3))] + "\"></div></div>");
-                rows.append("<div class=\"col-md-1\"><div id=\"circle_" + (i+1) + "_4\" class=\"circle " + Mastermind.GAME_COLORS[Integer.parseInt(rowsValues[i].substring(3, 4))] + "\"></div></div>");
-
-                int overallIndex = 0;
-                for (int j = 0 ; j < Integer.parseInt(rowsValues[i].substring(4, 5)) ; j++) {
-                    rows.append("<div class=\"col-md-1\"><div id=\"mcircle_" + (i + 1) + "_" + (overallIndex+1) + "\" class=\"small-circle red\"></div></div>");
-                    overallIndex++;
-                }
-                for (int j = 0 ; j < Integer.parseInt(rowsValues[i].substring(5, 6)) ; j++) {
-                    rows.append("<div class=\"col-md-1\"><div id=\"mcircle_" + (i + 1) + "_" + (overallIndex+1) + "\" class=\"small-circle white\"></div></div>");
-                    overallIndex++;
-                }
-                for (int j = Integer.parseInt(rowsValues[i].substring(4, 5)) + Integer.parseInt(rowsValues[i].substring(5, 6)) ; j < 4 ; j++) {
-                    rows.append("<div class=\"col-md-1\"><div id=\"mcircle_" + (i + 1) + "_" + (overallIndex+1) + "\" class=\"small-circle gray\"></div></div>");
-                    overallIndex++;
-                }
-            }
-            rows.append("</div>");
-        }
+    private String getCircleColumn(GameVariant variant) {
+        return variant.pegs <= 4 ? "col-md-1" : "col-auto";
+    }
 
-        rows.append("</div>");
-        return rows.toString();
+    /**
+     * Gives the grid column put before the circles of a row.
+     * @param variant the shape of the game
+     * @return the css class of the column
+     */
+    private String getOffsetColumn(GameVariant variant) {
+        return variant.pegs <= 4 ? "col-md-3" : "col-md-1";
     }
 
     /**
-     * Generates the color buttons and the text located in the right side of the UI.
-     * @param colors string array containing color names
-     * @param game the mastermind game
+     * Generates the color buttons and the text located in the right side of the UI, until the end of game
+     * label of the page without javascript.
+     * @param variant the shape of the game, holding the color names
      * @return the body color selection html part in a single string
      */
-    private String generateHtmlBodyColorSelection(String colors[], Mastermind game) {
+    private String generateHtmlBodyColorSelection(GameVariant variant) {
         StringBuilder selection = new StringBuilder();
 
         selection.append("<div class=\"col-md-4\">");
             selection.append("<span class=\"jsonly\">");
                 selection.append("<h4>Your next guest ...</h4>");
                 selection.append("<div class=\"row\">");
-                    selection.append("<div class=\"col-md-1\"><div class=\"circle red\" onclick=\"chooseColor(this, 'color1');\"></div></div>");
-                    selection.append("<div class=\"col-md-1\"><div class=\"circle red\" onclick=\"chooseColor(this, 'color2');\"></div></div>");
-                    selection.append("<div class=\"col-md-1\"><div class=\"circle red\" onclick=\"chooseColor(this, 'color3');\"></div></div>");
-                    selection.append("<div class=\"col-md-1\"><div class=\"circle red\" onclick=\"chooseColor(this, 'color4');\"></div></div>");
+                    for (String colorParameter : variant.colorParameters) {
+                        selection.append("<div class=\"" + getCircleColumn(variant) + "\"><div class=\"circle red\" onclick=\"chooseColor(this, '" + colorParameter + "');\"></div></div>");
+                    }
                 selection.append("</div>");
                 selection.append("<br>");
                 selection.append("<button type=\"button\" id=\"submit_javascript\" class=\"btn btn-primary\" onclick=\"sendColor();\">Submit</button>");
@@ -293,54 +392,42 @@ public class HtmlAdapter implements IHttpAdapter {
             selection.append("<noscript>");
                 selection.append("<form  method=\"post\">");
                     selection.append("<h4>Your next guest ...</h4>");
-                    selection.append("<label for=\"color1\"> Color 1 :&nbsp;</label>");
-                    selection.append("<select name=\"color1\" id=\"color1\">");
-                        for (String color : colors) {
-                            selection.append("<option value=\"" + color + "\">" + color + "</option>");
-                        }
-                    selection.append("</select>");
-                    selection.append("<br>");
-                    selection.append("<label for=\"color2\"> Color 2 :&nbsp;</label>");
-                    selection.append("<select name=\"color2\" id=\"color2\">");
-                        for (String color : colors) {
-                            selection.append("<option value=\"" + color + "\">" + color + "</option>");
-                        }
-                    selection.append("</select>");
-                    selection.append("<br>");
-                    selection.append("<label for=\"color3\"> Color 3 :&nbsp;</label>");
-                    selection.append("<select name=\"color3\" id=\"color3\">");
-                        for (String color : colors) {
-                            selection.append("<option value=\"" + color + "\">" + color + "</option>");
-                        }
-                    selection.append("</select>");
-                    selection.append("<br>");
-                    selection.append("<label for=\"color4\"> Color 4 :&nbsp;</label>");
-                    selection.append("<select name=\"color4\" id=\"color4\">");
-                        for (String color : colors) {
-                            selection.append("<option value=\"" + color + "\">" + color + "</option>");
-                        }
-                    selection.append("</select>");
-                    selection.append("<br>");
+                    for (int i = 1; i <= variant.pegs; i++) {
+                        selection.append("<label for=\"color" + i + "\"> Color " + i + " :&nbsp;</label>");
+                        selection.append("<select name=\"color" + i + "\" id=\"color" + i + "\">");
+                            for (String color : variant.colorNames) {
+                                selection.append("<option value=\"" + color + "\">" + color + "</option>");
+                            }
+                        selection.append("</select>");
+                        selection.append("<br>");
+                    }
                     selection.append("<button type=\"submit\" class=\"btn btn-primary\">Submit</button>");
                 selection.append("</form>");
-                if (game.isGameOver) {
-                    selection.append("<hr>");
-                    selection.append("<div>");
-                    if (game.nbOfTry == Mastermind.MAXIMUM_NUMBER_OF_TRY) {
-                        selection.append("<h4 id=\"lostLabel\">Unfortunately, you lost the game. Better luck next time !</h4>");
-                    } else {
-                        // Victory
-                        selection.append("<h4 id=\"winLabel\">Congratulations, you won the game !</h4>");
 
-                    }
-                        selection.append("<p><i>(refresh page to start a new game)<i></p>");
-                    selection.append("<div>");
-                }
-            selection.append("</noscript>");
-        selection.append("</div>");
+        return selection.toString();
+    }
+
+    /**
+     * Generates the end of game label of the page without javascript.
+     * @param isWon true if the game is won, false if it is lost
+     * @return the end of game label html part in a single string
+     */
+    private String generateHtmlEndOfGame(boolean isWon) {
+        StringBuilder label = new StringBuilder();
 
+        label.append("<hr>");
+        label.append("<div>");
+        if (!isWon) {
+            label.append("<h4 id=\"lostLabel\">Unfortunately, you lost the game. Better luck next time !</h4>");
+        } else {
+            // Victory
+            label.append("<h4 id=\"winLabel\">Congratulations, you won the game !</h4>");
 
-        return selection.toString();
+        }
+            label.append("<p><i>(refresh page to start a new game)<i></p>");
+        label.append("<div>");
+
+        return label.toString();
     }
 
     /**
@@ -356,4 +443,135 @@ public class HtmlAdapter implements IHttpAdapter {
 
         return script.toString();
     }
+
+    /**
+     * Pre-rendered page of a game variant, encoded in UTF-8. The board is kept as a fragment per circle and
+     * per color, so rendering a game only copies fragments.
+     */
+    private static class Template {
+        final GameVariant variant;
+        byte pageStart[];
+        final byte rowStarts[][];
+        //Per row, peg and color, the last color being gray for the rounds not played yet
+        final byte circles[][][][];
+        //Per row, peg and feedback color
+        final byte feedbacks[][][][];
+        byte rowEnd[];
+        byte selection[];
+        byte wonLabel[];
+        byte lostLabel[];
+        byte pageEnd[];
+
+        //Static parts compressed as raw deflate segments
+        byte compressedPageStart[];
+        byte compressedSelection[];
+        byte compressedWonLabel[];
+        byte compressedLostLabel[];
+        byte compressedPageEnd[];
+
+        Template(GameVariant variant) {
+            this.variant = variant;
+            rowStarts = new byte[variant.maxTries][];
+            circles = new byte[variant.maxTries][variant.pegs][variant.colors + 1][];
+            feedbacks = new byte[variant.maxTries][variant.pegs][FEEDBACK_COLORS.length][];
+        }
+
+        /**
+         * Renders the page of a game
+         * @param game the mastermind game
+         * @return the html bytes
+         */
+        byte[] render(Mastermind game) {
+            int nbOfTry = game.getPlayedTries();
+            return render(game, nbOfTry, getEndOfGame(game, nbOfTry));
+        }
+
+        /**
+         * Renders the compressed page of a game. Only the board is compressed, the static parts are
+         * copied already compressed.
+         * @param game the mastermind game
+         * @param contentEncoding ContentEncoding.GZIP, DEFLATE or IDENTITY
+         * @return the encoded html bytes
+         */
+        byte[] render(Mastermind game, String contentEncoding) {
+            int nbOfTry = game.getPlayedTries();
+            byte endOfGame[] = getEndOfGame(game, nbOfTry);
+            byte page[] = render(game, nbOfTry, endOfGame);
+            if (contentEncoding.equals(ContentEncoding.IDENTITY))
+                return page;
+
+            int boardEnd = page.length - selection.length - pageEnd.length - (endOfGame == null ? 0 : endOfGame.length);
+            int staticLength = compressedPageStart.length + compressedSelection.length + compressedPageEnd.length
+                    + compressedWonLabel.length;
+            ContentEncoding.Body body = new ContentEncoding.Body(page, contentEncoding,
+                    staticLength + (boardEnd - pageStart.length) / 4);
+            body.append(compressedPageStart);
+            body.deflate(pageStart.length, boardEnd, false);
+            body.append(compressedSelection);
+            if (endOfGame != null)
+                body.append(endOfGame == wonLabel ? compressedWonLabel : compressedLostLabel);
+            body.append(compressedPageEnd);
+            return body.finish();
+        }
+
+        private byte[] getEndOfGame(Mastermind game, int nbOfTry) {
+            int state = game.getState(nbOfTry);
+            return state == Mastermind.STATE_PLAYING ? null : state == Mastermind.STATE_WON ? wonLabel : lostLabel;
+        }
+
+        private byte[] render(Mastermind game, int nbOfTry, byte endOfGame[]) {
+            int length = pageStart.length + selection.length + pageEnd.length;
+            if (endOfGame != null)
+                length += endOfGame.length;
+            for (int i = 0; i < variant.maxTries; i++) {
+                length += rowStarts[i].length + rowEnd.length;
+                for (int j = 0; j < variant.pegs; j++) {
+                    length += getCircle(game, nbOfTry, i, j).length + getFeedback(game, nbOfTry, i, j).length;
+                }
+            }
+
+            byte page[] = new byte[length];
+            int offset = copy(pageStart, page, 0);
+            for (int i = 0; i < variant.maxTries; i++) {
+                offset = copy(rowStarts[i], page, offset);
+                for (int j = 0; j < variant.pegs; j++) {
+                    offset = copy(getCircle(game, nbOfTry, i, j), page, offset);
+                }
+                for (int j = 0; j < variant.pegs; j++) {
+                    offset = copy(getFeedback(game, nbOfTry, i, j), page, offset);
+                }
+                offset = copy(rowEnd, page, offset);
+            }
+            offset = copy(selection, page, offset);
+            if (endOfGame != null)
+                offset = copy(endOfGame, page, offset);
+            copy(pageEnd, page, offset);
+
+            return page;
+        }
+
+        private byte[] getCircle(Mastermind game, int nbOfTry, int row, int peg) {
+            if (row >= nbOfTry)
+                return circles[row][peg][variant.colors];
+            return circles[row][peg][Mastermind.getPeg(Mastermind.getGuess(game.roundValues[row]), peg)];
+        }
+
+        private byte[] getFeedback(Mastermind game, int nbOfTry, int row, int peg) {
+            if (row >= nbOfTry)
+                return feedbacks[row][peg][FEEDBACK_NONE];
+
+            long round = game.roundValues[row];
+            int goodColorAndPosition = Mastermind.getGoodColorAndPosition(round);
+            if (peg < goodColorAndPosition)
+                return feedbacks[row][peg][FEEDBACK_GOOD_POSITION];
+            if (peg < goodColorAndPosition + Mastermind.getGoodColors(round))
+                return feedbacks[row][peg][FEEDBACK_GOOD_COLOR];
+            return feedbacks[row][peg][FEEDBACK_NONE];
+        }
+
+        private static int copy(byte fragment[], byte page[], int offset) {
+            System.arraycopy(fragment, 0, page, offset, fragment.length);
+            return offset + fragment.length;
+        }
+    }
 }
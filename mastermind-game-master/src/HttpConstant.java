@@ -11,12 +11,18 @@ public class HttpConstant {
     public static final String mastermind_cookie_name = "MSESSID";
     public static final int COOKIE_ID_LENGTH = 26;
 
+    public static final String code_101 = "101";
+    public static final String status_101 = "Switching Protocols";
+
     public static final String code_200 = "200";
     public static final String status_200 = "OK";
 
     public static final String code_303 = "303";
     public static final String status_303 = "See Other";
 
+    public static final String code_304 = "304";
+    public static final String status_304 = "Not Modified";
+
     public static final String code_400 = "400";
     public static final String status_400 = "Bad Request";
     public static final String body_400 = "<h2>Bad Request</h2>Incorrect format of http request.";
@@ -29,34 +35,64 @@ public class HttpConstant {
     public static final String status_405 = "Method Not Allowed";
     public static final String body_405 = "<h2>Method Not Allowed</h2>A request method is not supported for the requested resource.";
 
+    public static final String code_409 = "409";
+    public static final String status_409 = "Conflict";
+    public static final String body_409 = "<h2>Conflict</h2>The game is already over, reload the page to start a new one.";
+
     public static final String code_411 = "411";
     public static final String status_411 = "Length Required";
     public static final String body_411 = "<h2>Length Required</h2>The request did not specify the length of its content, which is required by the requested resource.";
 
+    public static final String code_413 = "413";
+    public static final String status_413 = "Payload Too Large";
+    public static final String body_413 = "<h2>Payload Too Large</h2>The body of the request is larger than the server accepts, at most "
+            + HttpParser.MAX_CONTENT_LENGTH + " bytes.";
+
+    public static final String code_431 = "431";
+    public static final String status_431 = "Request Header Fields Too Large";
+    public static final String body_431 = "<h2>Request Header Fields Too Large</h2>The headers of the request are larger than the server accepts, at most "
+            + HttpParser.MAX_HEADER_SIZE + " bytes.";
+
     public static final String code_501 = "501";
     public static final String status_501 = "Not Implemented";
     public static final String body_501 = "<h2>HTTP Request Method Not Implemented</h2>The request method is not supported by the server and cannot be handled.";
 
+    public static final String code_503 = "503";
+    public static final String status_503 = "Service Unavailable";
+    public static final String body_503 = "<h2>Service Unavailable</h2>The server is too busy to handle the request, please try again later.";
+
     public static final String code_505 = "505";
     public static final String status_505 = "HTTP Version Not Supported";
     public static final String body_505 = "<h2>HTTP Version Not Supported</h2>The server does not support the HTTP protocol version used in the request.";
 
     public static String getStatusFromErrorCode(String errorCode) {
         switch (errorCode) {
+            case code_101:
+                return status_101;
             case code_200:
                 return status_200;
             case code_303:
                 return status_303;
+            case code_304:
+                return status_304;
             case code_400:
                 return status_400;
             case code_404:
                 return status_404;
+            case code_409:
+                return status_409;
             case code_411:
                 return status_411;
             case code_405:
                 return status_405;
+            case code_413:
+                return status_413;
+            case code_431:
+                return status_431;
             case code_501:
                 return status_501;
+            case code_503:
+                return status_503;
             case code_505:
                 return status_505;
             default:
@@ -74,10 +110,18 @@ public class HttpConstant {
                 return body_404;
             case code_405:
                 return body_405;
+            case code_409:
+                return body_409;
             case code_411:
                 return body_411;
+            case code_413:
+                return body_413;
+            case code_431:
+                return body_431;
             case code_501:
                 return body_501;
+            case code_503:
+                return body_503;
             case code_505:
                 return body_505;
             default:
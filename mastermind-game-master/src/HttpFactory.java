@@ -1,3 +1,4 @@
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
 /**
@@ -6,113 +7,114 @@ import java.util.HashMap;
  * the worker thread can know how to analyse and treat it.
  */
 public class HttpFactory {
+    private static final IHttpAdapter HTML_ADAPTER = new HtmlAdapter();
+    private static final IHttpAdapter JSON_ADAPTER = new JsonAdapter();
+    private static final IHttpAdapter BINARY_ADAPTER = new BinaryAdapter();
 
     /**
-     * Creates the appropriate HTTP request type from the request header. Is used mainly by the worker thread but
-     * is also used before by the server to find existing associated game with the cookie ID. Can also directly create
-     * HTTP error replies if there is problem with the received request.
+     * Creates the appropriate HTTP request type from the request header. Parses the whole request at once, the
+     * server itself parses the bytes of the connections as they arrive with an HttpParser. Can also directly
+     * create HTTP error replies if there is problem with the received request.
      * @param httpHeader the HTTP request header
      * @return the right http request (nly GET or POST in our case)
      */
     public static HttpRequest createHttpRequestFromHttpHeader(String httpHeader) {
-        HttpRequest request;
-
-        //Dispatching the right request by interpreting its header
-        try {
-            String values[] = httpHeader.split(HttpConstant.line_break);
-            String firstRow[] = values[0].split(" ");
-            switch (firstRow[0]) {
-                case "GET":
-                    request = new HttpGet();
-                    break;
-                case "POST":
-                    boolean is411 = true;
-                    for (String value : values) {
-                        if (value.contains("Content-Length:")) {
-                            is411 = false;
-                        }
-                    }
-                    if (is411) {
-                        request = createHttpReplyFromCode(HttpConstant.code_411, null);
-                        return request;
-                    } else {
-                        request = new HttpPost();
-                        ((HttpPost) request).setBody(values[values.length-1]);
-                    }
-                    break;
-                case "PUT":
-                    request = createHttpReplyFromCode(HttpConstant.code_405, null);
-                    return request;
-                case "DELETE":
-                    request = createHttpReplyFromCode(HttpConstant.code_405, null);
-                    return request;
-                case "HEAD":
-                    request = createHttpReplyFromCode(HttpConstant.code_405, null);
-                    return request;
-                case "TRACE":
-                    request = createHttpReplyFromCode(HttpConstant.code_405, null);
-                    return request;
-                case "OPTIONS":
-                    request = createHttpReplyFromCode(HttpConstant.code_405, null);
-                    return request;
-                case "CONNECT":
-                    request = createHttpReplyFromCode(HttpConstant.code_405, null);
-                    return request;
-                case "PATCH":
-                    request = createHttpReplyFromCode(HttpConstant.code_405, null);
-                    return request;
-                default:
-                    request = createHttpReplyFromCode(HttpConstant.code_400, null);
-                    return request;
-            }
+        byte data[] = httpHeader.getBytes(StandardCharsets.UTF_8);
+        HttpParser parser = new HttpParser();
+        if (!parser.parse(data, data.length))
+            return createHttpReplyFromCode(HttpConstant.code_400, null);
 
-            request.setHttpUrl(firstRow[1]);
+        return parser.getRequest();
+    }
 
-            // Check for bad http version
-            request.httpVersion = firstRow[2];
-            if (!request.httpVersion.equals(HttpConstant.http_version)) {
-                request = createHttpReplyFromCode(HttpConstant.code_505, null);
-                return request;
+    /**
+     * Creates the appropriate HTTP request type from the request method, so the worker thread can know how
+     * to analyse and treat it. Creates the HTTP error reply if the method is not supported.
+     * @param method the HTTP method
+     * @return the right http request (only GET or POST in our case)
+     */
+    public static HttpRequest createHttpRequestFromMethod(String method) {
+        switch (method) {
+            case "GET":
+                return new HttpGet();
+            case "POST":
+                return new HttpPost();
+            case "PUT":
+            case "DELETE":
+            case "HEAD":
+            case "TRACE":
+            case "OPTIONS":
+            case "CONNECT":
+            case "PATCH":
+                return createHttpReplyFromCode(HttpConstant.code_405, null);
+            default:
+                return createHttpReplyFromCode(HttpConstant.code_400, null);
+        }
+    }
+
+    /**
+     * Chooses the adapter generating the replies from the Accept header : JSON (application/json), binary
+     * (application/x-mastermind) or the html page. The type with the highest quality is chosen, the first one
+     * listed if several have the same quality. The html page is the default, browsers accept it through
+     * text/html or the wildcard type.
+     * @param accept the Accept header of the request, can be null
+     * @return the adapter, shared between the requests
+     */
+    public static IHttpAdapter createAdapterFromAccept(String accept) {
+        if (accept == null)
+            return HTML_ADAPTER;
+
+        IHttpAdapter adapter = HTML_ADAPTER;
+        double bestQuality = 0;
+        for (String range : accept.split(",")) {
+            int parameters = range.indexOf(';');
+            String type = (parameters == -1 ? range : range.substring(0, parameters)).trim();
+            IHttpAdapter candidate;
+            if (type.equalsIgnoreCase(JsonAdapter.CONTENT_TYPE))
+                candidate = JSON_ADAPTER;
+            else if (type.equalsIgnoreCase(BinaryAdapter.CONTENT_TYPE))
+                candidate = BINARY_ADAPTER;
+            else if (type.equalsIgnoreCase("text/html") || type.equals("*/*"))
+                candidate = HTML_ADAPTER;
+            else
+                continue;
+
+            double quality = parameters == -1 ? 1 : readQuality(range.substring(parameters + 1));
+            if (quality > bestQuality) {
+                bestQuality = quality;
+                adapter = candidate;
             }
+        }
+        return adapter;
+    }
 
-            // Set headers
-            for (int i = 1; i < values.length; i++) {
-                if (!values[i].equals("") && values[i].split(": ").length == 2) {
-                    String keyValue[] = values[i].split(": ");
-                    request.httpHeaders.put(keyValue[0], keyValue[1]);
+    /**
+     * Reads the q parameter of a media range
+     * @param parameters the parameters after the type
+     * @return the quality, 1 if it is not given or not valid
+     */
+    private static double readQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 1;
                 }
             }
-
-        } catch (Exception e) {
-            request = createHttpReplyFromCode(HttpConstant.code_400, null);
         }
-
-        return request;
+        return 1;
     }
 
     /**
      * Creates the reply containing the html. Used to answer client GET requests for new games or POST requests
-     * @param html the html page to be sent to the client
+     * @param html the html page to be sent to the client, encoded in UTF-8
      * @param extraHeaders possible extra headers to the request
      * @return the HTTP reply
      */
-    public static HttpReply createHttpReplyFromHtmlFile(String html, HashMap<String, String> extraHeaders) {
-        HttpReply reply = new HttpReply();
-
-        reply.httpVersion = HttpConstant.http_version;
-
-        //request success
-        reply.code = HttpConstant.code_200;
-        reply.status = HttpConstant.getStatusFromErrorCode(HttpConstant.code_200);
-
-        reply.httpHeaders.put("Content-Type:", "text/html");
-        reply.httpHeaders.put("Transfer-Encoding:", "chunked");
-        reply.httpHeaders.put("Connection:", "keep-alive");
-        if (extraHeaders != null) reply.httpHeaders.putAll(extraHeaders);
-
-        reply.body = html;
-
-        return reply;
+    public static HttpReply createHttpReplyFromHtmlFile(byte[] html, HashMap<String, String> extraHeaders) {
+        return createHttpReplyFromBytes(html, "text/html", extraHeaders);
     }
 
     /**
@@ -123,6 +125,17 @@ public class HttpFactory {
      * @return the HTTP reply
      */
     public static HttpReply createHttpReplyFromTextFile(String text, HashMap<String, String> extraHeaders) {
+        return createHttpReplyFromBytes(text.getBytes(StandardCharsets.UTF_8), "text/plain", extraHeaders);
+    }
+
+    /**
+     * Creates the reply containing a body generated by an adapter
+     * @param body the body to be sent to the client
+     * @param contentType the type of the body
+     * @param extraHeaders possible extra headers of the request
+     * @return the HTTP reply
+     */
+    public static HttpReply createHttpReplyFromBytes(byte[] body, String contentType, HashMap<String, String> extraHeaders) {
         HttpReply reply = new HttpReply();
 
         reply.httpVersion = HttpConstant.http_version;
@@ -131,12 +144,11 @@ public class HttpFactory {
         reply.code = HttpConstant.code_200;
         reply.status = HttpConstant.getStatusFromErrorCode(HttpConstant.code_200);
 
-        reply.httpHeaders.put("Content-Type:", "text/plain");
-        reply.httpHeaders.put("Transfer-Encoding:", "chunked");
+        reply.httpHeaders.put("Content-Type:", contentType);
         reply.httpHeaders.put("Connection:", "keep-alive");
         if (extraHeaders != null) reply.httpHeaders.putAll(extraHeaders);
 
-        reply.body = text;
+        reply.body = body;
 
         return reply;
     }
@@ -154,12 +166,11 @@ public class HttpFactory {
         reply.code = code;
         reply.status = HttpConstant.getStatusFromErrorCode(code);
         reply.httpHeaders.put("Content-Type:", "text/html");
-        reply.httpHeaders.put("Transfer-Encoding:", "chunked");
         reply.httpHeaders.put("Connection:", "keep-alive");
         if (extraHeaders != null) reply.httpHeaders.putAll(extraHeaders);
 
         //Get the html body corresponding to the error code
-        reply.body = HttpConstant.getBodyFromErrorCode(code);
+        reply.body = HttpConstant.getBodyFromErrorCode(code).getBytes(StandardCharsets.UTF_8);
         return reply;
     }
 }
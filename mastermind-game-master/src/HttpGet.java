@@ -8,28 +8,11 @@ public class HttpGet extends HttpRequest {
     HashMap<String, String> parameters;
 
     /**
-     * Public constructor, initiates the parameters hashmap
+     * Public constructor, initiates the parameters hashmap. The parameters of the url are filled by the parser.
      */
     public HttpGet() {
         super();
         parameters = new HashMap<>();
     }
 
-    /**
-     * Sets the url as what was received in the GET request and fetches the parameters in it.
-     * @param url the HTTP POST request body
-     */
-    @Override
-    public void setHttpUrl(String url) {
-        this.httpUrl = url;
-        if (url.contains("?")) {
-            this.httpUrl = url.substring(0, url.indexOf("?"));
-            String params[] = url.substring(url.indexOf("?")+1, url.length()).split("&");
-            for (String param : params) {
-                String keyValue[] = param.split("=");
-                parameters.put(keyValue[0], keyValue[1]);
-            }
-        }
-    }
-
 }
@@ -0,0 +1,413 @@
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Streaming parser of the HTTP requests, working directly on the bytes read from a connection. Every byte is
+ * looked at once : the parser keeps its state between two reads and resumes where it stopped, so a request
+ * arriving in several packets is never scanned again from its start.
+ * It creates the request object as soon as the method is known and fills its url, parameters and headers
+ * while reading. The usual tokens (method, url, header names, parameter names, colors, ...) are matched
+ * against constant strings instead of creating new ones. A bad request gives an HttpReply with the error
+ * code, like HttpFactory does.
+ */
+public class HttpParser {
+    private static final int METHOD = 0;
+    private static final int TARGET = 1;
+    private static final int VERSION = 2;
+    private static final int REQUEST_LINE_END = 3;
+    private static final int HEADER_START = 4;
+    private static final int HEADER_NAME = 5;
+    private static final int HEADER_VALUE_START = 6;
+    private static final int HEADER_VALUE = 7;
+    private static final int HEADER_LINE_END = 8;
+    private static final int HEADERS_END = 9;
+    private static final int BODY = 10;
+    private static final int COMPLETE = 11;
+
+    public static final String HOST = "Host";
+    public static final String COOKIE = "Cookie";
+    public static final String CONNECTION = "Connection";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String ACCEPT = "Accept";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String ORIGIN = "Origin";
+    public static final String UPGRADE = "Upgrade";
+    public static final String SEC_WEBSOCKET_KEY = "Sec-WebSocket-Key";
+    public static final String SEC_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    //Limits of a request, the read buffer of a connection holds the largest one
+    public static final int MAX_HEADER_SIZE = 16 * 1024;
+    public static final int MAX_CONTENT_LENGTH = 64 * 1024;
+    public static final int MAX_REQUEST_SIZE = MAX_HEADER_SIZE + MAX_CONTENT_LENGTH;
+
+    //Known tokens, indexed by their length
+    private static final String TOKENS[][] = indexByLength(knownTokens());
+    private static final String HEADER_NAMES[][] = indexByLength(HOST, COOKIE, CONNECTION, CONTENT_LENGTH,
+            CONTENT_TYPE, "User-Agent", ACCEPT, ACCEPT_ENCODING, "Accept-Language", "Referer", ORIGIN,
+            "Cache-Control", "Pragma", UPGRADE, "Upgrade-Insecure-Requests", IF_NONE_MATCH, IF_MODIFIED_SINCE, "DNT",
+            SEC_WEBSOCKET_KEY, SEC_WEBSOCKET_VERSION, "Sec-WebSocket-Extensions");
+
+    private int state = METHOD;
+    private int requestStart = 0;
+    private int position = 0;
+    private int tokenStart = 0;
+    private HttpRequest request;
+    private String headerName;
+    private int contentLength = -1;
+    private int bodyStart = -1;
+
+    /**
+     * Parses the bytes received since the last call.
+     * @param data the bytes of the connection, the request starting at the index given to reset (0 by default)
+     * @param limit the number of bytes received
+     * @return true if the request is complete (or bad)
+     */
+    public boolean parse(byte[] data, int limit) {
+        while (position < limit && state != BODY && state != COMPLETE) {
+            if (position - requestStart >= MAX_HEADER_SIZE) {
+                fail(HttpConstant.code_431);
+                break;
+            }
+            byte b = data[position];
+            switch (state) {
+                case METHOD:
+                    if (b == ' ') {
+                        request = HttpFactory.createHttpRequestFromMethod(toToken(data, tokenStart, position, TOKENS));
+                        if (request instanceof HttpReply) {
+                            state = COMPLETE;
+                            break;
+                        }
+                        state = TARGET;
+                        tokenStart = position + 1;
+                    }
+                    else if (b == '\r' || b == '\n') {
+                        fail(HttpConstant.code_400);
+                    }
+                    break;
+
+                case TARGET:
+                    if (b == ' ') {
+                        if (!parseTarget(data, tokenStart, position)) {
+                            fail(HttpConstant.code_400);
+                            break;
+                        }
+                        state = VERSION;
+                        tokenStart = position + 1;
+                    }
+                    else if (b == '\r' || b == '\n') {
+                        fail(HttpConstant.code_400);
+                    }
+                    break;
+
+                case VERSION:
+                    if (b == '\r') {
+                        request.httpVersion = toToken(data, tokenStart, position, TOKENS);
+                        if (!request.httpVersion.equals(HttpConstant.http_version)) {
+                            fail(HttpConstant.code_505);
+                            break;
+                        }
+                        state = REQUEST_LINE_END;
+                    }
+                    else if (b == ' ' || b == '\n') {
+                        fail(HttpConstant.code_400);
+                    }
+                    break;
+
+                case REQUEST_LINE_END:
+                case HEADER_LINE_END:
+                    if (b != '\n') {
+                        fail(HttpConstant.code_400);
+                        break;
+                    }
+                    state = HEADER_START;
+                    break;
+
+                case HEADER_START:
+                    if (b == '\r') {
+                        state = HEADERS_END;
+                    }
+                    else {
+                        tokenStart = position;
+                        state = HEADER_NAME;
+                        continue;
+                    }
+                    break;
+
+                case HEADER_NAME:
+                    if (b == ':') {
+                        headerName = toToken(data, tokenStart, position, HEADER_NAMES);
+                        state = HEADER_VALUE_START;
+                    }
+                    else if (b == '\r') {
+                        //Not a header, the line is ignored
+                        state = HEADER_LINE_END;
+                    }
+                    break;
+
+                case HEADER_VALUE_START:
+                    if (b == '\r') {
+                        //Empty value, the header is ignored
+                        state = HEADER_LINE_END;
+                    }
+                    else if (b != ' ' && b != '\t') {
+                        tokenStart = position;
+                        state = HEADER_VALUE;
+                        continue;
+                    }
+                    break;
+
+                case HEADER_VALUE:
+                    if (b == '\r') {
+                        if (!addHeader(data, tokenStart, position)) {
+                            fail(contentLength > MAX_CONTENT_LENGTH ? HttpConstant.code_413 : HttpConstant.code_400);
+                            break;
+                        }
+                        state = HEADER_LINE_END;
+                    }
+                    break;
+
+                case HEADERS_END:
+                    if (b != '\n') {
+                        fail(HttpConstant.code_400);
+                        break;
+                    }
+                    bodyStart = position + 1;
+                    if (request instanceof HttpPost) {
+                        if (contentLength == -1) {
+                            fail(HttpConstant.code_411);
+                            break;
+                        }
+                        state = BODY;
+                    }
+                    else {
+                        state = COMPLETE;
+                    }
+                    break;
+            }
+            position++;
+        }
+
+        // In case of a POST request, wait for the whole body (Content-Length is a number of bytes). It is kept
+        // as received, the handler of the url reads it as a form or as text
+        if (state == BODY && limit >= bodyStart + contentLength) {
+            position = bodyStart + contentLength;
+            ((HttpPost) request).setBody(Arrays.copyOfRange(data, bodyStart, position));
+            state = COMPLETE;
+        }
+
+        return state == COMPLETE;
+    }
+
+    /**
+     * Getter for the parsed request, once complete
+     * @return the request, or an HttpReply if the request is bad
+     */
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Getter for the number of bytes of the request, the next request starts right after
+     * @return the request length in bytes
+     */
+    public int getRequestLength() {
+        return position - requestStart;
+    }
+
+    /**
+     * Gets ready for the next request of the connection
+     */
+    public void reset() {
+        reset(0);
+    }
+
+    /**
+     * Gets ready for the next request of the connection, already received after the previous one
+     * @param start index of the first byte of the next request
+     */
+    public void reset(int start) {
+        state = METHOD;
+        requestStart = start;
+        position = start;
+        tokenStart = start;
+        request = null;
+        headerName = null;
+        contentLength = -1;
+        bodyStart = -1;
+    }
+
+    /**
+     * Follows the bytes of the connection when the bytes before the current request are dropped, so the
+     * parsing resumes where it stopped
+     * @param count the number of bytes removed from the start of the data
+     */
+    public void shift(int count) {
+        requestStart -= count;
+        position -= count;
+        tokenStart -= count;
+        if (bodyStart != -1)
+            bodyStart -= count;
+    }
+
+    /**
+     * Ends the parsing with an error reply
+     * @param code the error code
+     */
+    private void fail(String code) {
+        request = HttpFactory.createHttpReplyFromCode(code, null);
+        state = COMPLETE;
+    }
+
+    /**
+     * Sets the url of the request, and the parameters of a GET request
+     * @return false if the parameters are malformed
+     */
+    private boolean parseTarget(byte[] data, int start, int end) {
+        if (start == end)
+            return false;
+
+        int query = end;
+        if (request instanceof HttpGet) {
+            for (int i = start; i < end; i++) {
+                if (data[i] == '?') {
+                    query = i;
+                    break;
+                }
+            }
+        }
+
+        request.httpUrl = toToken(data, start, query, TOKENS);
+        return query == end || parseParameters(data, query + 1, end, ((HttpGet) request).parameters);
+    }
+
+    /**
+     * Reads url encoded parameters (name1=value1&name2=value2). Empty parts are skipped.
+     * @return false if a parameter has no value
+     */
+    static boolean parseParameters(byte[] data, int start, int end, HashMap<String, String> parameters) {
+        int nameStart = start;
+        int equals = -1;
+        for (int i = start; i <= end; i++) {
+            if (i == end || data[i] == '&') {
+                if (i != nameStart) {
+                    if (equals == -1 || equals == i - 1)
+                        return false;
+                    parameters.put(toToken(data, nameStart, equals, TOKENS), toToken(data, equals + 1, i, TOKENS));
+                }
+                nameStart = i + 1;
+                equals = -1;
+            }
+            else if (data[i] == '=' && equals == -1) {
+                equals = i;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves a header. Reads the body length directly from the bytes of the Content-Length header.
+     * @return false if the Content-Length is not valid, the content length is then over MAX_CONTENT_LENGTH
+     * if it is too big
+     */
+    private boolean addHeader(byte[] data, int start, int end) {
+        while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\t'))
+            end--;
+
+        if (headerName == CONTENT_LENGTH) {
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                if (data[i] < '0' || data[i] > '9')
+                    return false;
+                length = length * 10 + (data[i] - '0');
+                if (length > MAX_CONTENT_LENGTH) {
+                    contentLength = length;
+                    return false;
+                }
+            }
+            contentLength = length;
+        }
+
+        request.httpHeaders.put(headerName, toToken(data, start, end, TOKENS));
+        return true;
+    }
+
+    /**
+     * Gives the string of a token, the known string if it is a known token
+     * @param data the bytes
+     * @param start index of the first byte of the token
+     * @param end index after the last byte of the token
+     * @param known the known tokens, indexed by their length
+     * @return the token
+     */
+    private static String toToken(byte[] data, int start, int end, String known[][]) {
+        int length = end - start;
+        if (length < known.length && known[length] != null) {
+            boolean ignoreCase = known == HEADER_NAMES;
+            for (String token : known[length]) {
+                if (matches(token, data, start, ignoreCase))
+                    return token;
+            }
+        }
+        return new String(data, start, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(String token, byte[] data, int start, boolean ignoreCase) {
+        for (int i = 0; i < token.length(); i++) {
+            int expected = token.charAt(i);
+            int actual = data[start + i];
+            if (expected != actual && !(ignoreCase && (expected | 0x20) == (actual | 0x20) && Character.isLetter(expected)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lists the tokens often found in the requests of the game
+     * @return the tokens
+     */
+    private static String[] knownTokens() {
+        HashSet<String> tokens = new HashSet<>();
+        for (String token : new String[] {"GET", "POST", "PUT", "DELETE", "HEAD", "TRACE", "OPTIONS", "CONNECT",
+                "PATCH", HttpConstant.http_version, "/", "/play.html", "/favicon.ico", "/client/play.html", SimulationHandler.URL, "keep-alive", "close",
+                "Upgrade", "websocket", WebSocketSession.VERSION, "variant", "games", HttpPost.FORM_CONTENT_TYPE, "text/plain", JsonAdapter.CONTENT_TYPE, BinaryAdapter.CONTENT_TYPE}) {
+            tokens.add(token);
+        }
+        for (String color : GameVariant.ALL_COLORS) {
+            tokens.add(color);
+        }
+        for (String colorParameter : GameVariant.GRAND.colorParameters) {
+            tokens.add(colorParameter);
+        }
+        for (String variant : new String[] {GameVariant.CLASSIC.name, GameVariant.SUPER.name,
+                GameVariant.EXPERT.name, GameVariant.GRAND.name}) {
+            tokens.add(variant);
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private static String[][] indexByLength(String... tokens) {
+        int maxLength = 0;
+        for (String token : tokens) {
+            maxLength = Math.max(maxLength, token.length());
+        }
+
+        String index[][] = new String[maxLength + 1][];
+        for (String token : tokens) {
+            String sameLength[] = index[token.length()];
+            if (sameLength == null) {
+                sameLength = new String[0];
+            }
+            String grown[] = new String[sameLength.length + 1];
+            System.arraycopy(sameLength, 0, grown, 0, sameLength.length);
+            grown[sameLength.length] = token;
+            index[token.length()] = grown;
+        }
+        return index;
+    }
+}
@@ -1,15 +1,19 @@
-
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
 /**
  * Concrete class of the HTTP request. Represents a HTTP POST request that the server can receive.
+ * The parser keeps the body as it was received, the handler of the url decides if it is a form or text.
  */
 public class HttpPost extends HttpRequest {
-    private String body;
+    public static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private byte body[];
     HashMap<String, String> parameters;
 
     /**
-     * Public constructor, initiates the parameters hashmap
+     * Public constructor, initiates the parameters hashmap. The parameters of a form body are filled by
+     * readFormParameters.
      */
     public HttpPost() {
         super();
@@ -18,23 +22,29 @@ public class HttpPost extends HttpRequest {
 
     /**
      * Getter for the body attribute
-     * @return the body
+     * @return the body as UTF-8 text
      */
     public String getBody(){
-        return body;
+        return new String(body, StandardCharsets.UTF_8);
     }
 
     /**
      * Sets the body as what was received in the POST request.
-     * @param body the HTTP POST request body
+     * @param body the HTTP POST request body bytes
      */
-    public void setBody(String body) {
+    public void setBody(byte body[]) {
         this.body = body;
-            String params[] = body.split("&");
-            for (String param : params) {
-                String keyValue[] = param.split("=");
-                parameters.put(keyValue[0], keyValue[1]);
-            }
+    }
 
+    /**
+     * Reads the body as url encoded parameters, when its Content-Type is a form or is missing. The other
+     * bodies (text/plain, ...) have no parameters.
+     * @return false if the form is malformed
+     */
+    public boolean readFormParameters() {
+        String contentType = httpHeaders.get(HttpParser.CONTENT_TYPE);
+        boolean isForm = contentType == null
+                || contentType.regionMatches(true, 0, FORM_CONTENT_TYPE, 0, FORM_CONTENT_TYPE.length());
+        return !isForm || HttpParser.parseParameters(body, 0, body.length, parameters);
     }
 }
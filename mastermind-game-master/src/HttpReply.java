@@ -1,4 +1,6 @@
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 /**
@@ -6,20 +8,21 @@ import java.util.Map;
  * back to the clients.
  */
 public class HttpReply extends HttpRequest {
-    private static final int MAX_CHUNKED_SIZE = 15;
+    private static final String CONTENT_LENGTH = "Content-Length: ";
     public String code;
     public String status;
-    public String body;
+    public byte[] body;
 
     public HttpReply() {
 
     }
 
     /**
-     * Generates the HTTP response to be sent
-     * @return the http reply
+     * Generates the HTTP response to be sent : the status line and the headers, with the Content-Length of
+     * the body, then the body. Both are written together with a gathering write.
+     * @return the http reply buffers
      */
-    public String getHttpResponse() {
+    public ByteBuffer[] getHttpResponse() {
         StringBuilder response = new StringBuilder();
         response.append(this.httpVersion).append(" ");
         response.append(this.code).append(" ");
@@ -30,29 +33,12 @@ public class HttpReply extends HttpRequest {
             response.append(option.getKey()).append(" ").append(option.getValue());
             response.append(HttpConstant.line_break);
         }
-
+        response.append(CONTENT_LENGTH).append(body.length);
         response.append(HttpConstant.line_break);
-        response.append(getChunkedBody(this.body));
-
-        return response.toString();
-    }
 
-    /**
-     * Usage of the chunk encoding to encode the html body before sending it to the client.
-     * @param body the html body (not encoded)
-     * @return the encoded body
-     */
-    private String getChunkedBody(String body) {
-        StringBuilder response = new StringBuilder();
-
-        while (body.length() != 0) {
-            String nextChunk = body.substring(0, body.length() > MAX_CHUNKED_SIZE ? MAX_CHUNKED_SIZE : body.length());
-            body = body.substring(body.length() > MAX_CHUNKED_SIZE ? MAX_CHUNKED_SIZE : body.length(), body.length());
-            response.append(Integer.toHexString(nextChunk.length())).append(HttpConstant.line_break);
-            response.append(nextChunk).append(HttpConstant.line_break);
-        }
-        response.append(0).append(HttpConstant.line_break).append(HttpConstant.line_break);
+        response.append(HttpConstant.line_break);
 
-        return response.toString();
+        byte header[] = response.toString().getBytes(StandardCharsets.ISO_8859_1);
+        return new ByteBuffer[] {ByteBuffer.wrap(header), ByteBuffer.wrap(body)};
     }
 }
@@ -10,6 +10,8 @@ public abstract class HttpRequest {
     protected String httpUrl;
     public String httpVersion;
     public HashMap<String, String> httpHeaders;
+    //System.nanoTime() when the request was complete
+    public long receivedTime;
 
     public HttpRequest() {
         httpHeaders = new HashMap<>();
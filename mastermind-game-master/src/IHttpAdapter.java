@@ -1,7 +1,18 @@
-
 /**
  * To have a contract for adapters. Sets place for more adapter types in the future.
+ * An adapter gives the state of a game (the page of a new game or after a POST) and the result of a round
+ * (the reply of a guess sent with GET parameters).
  */
 public interface IHttpAdapter {
+    String getPageContentType();
+
+    String getRoundContentType();
+
     String generateStringFromMastermind(Mastermind game);
+
+    byte[] generateBytesFromMastermind(Mastermind game);
+
+    byte[] generateBytesFromMastermind(Mastermind game, String contentEncoding);
+
+    byte[] generateBytesFromRound(Mastermind game, long round);
 }
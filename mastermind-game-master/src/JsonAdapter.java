@@ -0,0 +1,180 @@
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates the state of a game and the result of a round in JSON, for the clients that are not browsers
+ * (bots, mobile applications). A game gives :
+ * {"variant":"classic","pegs":4,"colors":["red",...],"maxTries":12,"tries":1,"state":"playing",
+ * "rounds":[{"guess":["red","blue","red","blue"],"black":1,"white":0}]}
+ * and a round gives {"tries":1,"black":1,"white":0,"state":"playing"}.
+ * The JSON is written directly as bytes. The keys and the color names are ASCII strings that never need
+ * escaping, they are encoded once per variant, only the numbers are written for every reply.
+ */
+public class JsonAdapter implements IHttpAdapter {
+    public static final String CONTENT_TYPE = "application/json";
+
+    //Indexed by Mastermind.STATE_PLAYING, STATE_WON and STATE_LOST
+    private static final byte STATES[][] = {ascii("\"playing\""), ascii("\"won\""), ascii("\"lost\"")};
+
+    private static final byte TRIES[] = ascii(",\"tries\":");
+    private static final byte STATE[] = ascii(",\"state\":");
+    private static final byte ROUNDS[] = ascii(",\"rounds\":[");
+    private static final byte GUESS[] = ascii("{\"guess\":[");
+    private static final byte BLACK[] = ascii("],\"black\":");
+    private static final byte WHITE[] = ascii(",\"white\":");
+    private static final byte ROUND_TRIES[] = ascii("{\"tries\":");
+    private static final byte ROUND_BLACK[] = ascii(",\"black\":");
+    private static final int MAX_NUMBER_LENGTH = 11;
+
+    //Parts of the JSON of the game variants, encoded the first time a variant is played
+    private static final ConcurrentHashMap<GameVariant, VariantJson> variants = new ConcurrentHashMap<>();
+
+    public String getPageContentType() {
+        return CONTENT_TYPE;
+    }
+
+    public String getRoundContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /**
+     * Generates the JSON of a game as a string
+     * @param game the mastermind game object
+     * @return the JSON
+     */
+    public String generateStringFromMastermind(Mastermind game) {
+        return new String(generateBytesFromMastermind(game), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Generates the JSON of a game : its variant, its state and every round played
+     * @param game the mastermind game object
+     * @return the JSON bytes
+     */
+    public byte[] generateBytesFromMastermind(Mastermind game) {
+        VariantJson variant = variants.computeIfAbsent(game.variant, VariantJson::new);
+        int tries = game.getPlayedTries();
+        byte json[] = new byte[variant.maxLength];
+        int length = put(json, 0, variant.start);
+        length = put(json, length, TRIES);
+        length = putNumber(json, length, tries);
+        length = put(json, length, STATE);
+        length = put(json, length, STATES[game.getState(tries)]);
+        length = put(json, length, ROUNDS);
+
+        for (int i = 0; i < tries; i++) {
+            long round = game.roundValues[i];
+            int guess = Mastermind.getGuess(round);
+            if (i > 0)
+                json[length++] = ',';
+            length = put(json, length, GUESS);
+            for (int j = 0; j < game.variant.pegs; j++) {
+                if (j > 0)
+                    json[length++] = ',';
+                length = put(json, length, variant.quotedColors[Mastermind.getPeg(guess, j)]);
+            }
+            length = put(json, length, BLACK);
+            length = putNumber(json, length, Mastermind.getGoodColorAndPosition(round));
+            length = put(json, length, WHITE);
+            length = putNumber(json, length, Mastermind.getGoodColors(round));
+            json[length++] = '}';
+        }
+        json[length++] = ']';
+        json[length++] = '}';
+
+        return Arrays.copyOf(json, length);
+    }
+
+    /**
+     * Generates the JSON of a game, then compresses it
+     * @param game the mastermind game object
+     * @param contentEncoding ContentEncoding.GZIP, DEFLATE or IDENTITY
+     * @return the encoded JSON bytes
+     */
+    public byte[] generateBytesFromMastermind(Mastermind game, String contentEncoding) {
+        return ContentEncoding.encode(generateBytesFromMastermind(game), contentEncoding);
+    }
+
+    /**
+     * Generates the JSON of a round : the number of rounds played, its result and the state of the game
+     * @param game the mastermind game object
+     * @param round the packed round
+     * @return the JSON bytes
+     */
+    public byte[] generateBytesFromRound(Mastermind game, long round) {
+        byte json[] = new byte[ROUND_TRIES.length + ROUND_BLACK.length + WHITE.length + STATE.length
+                + STATES[0].length + 3 * MAX_NUMBER_LENGTH + 1];
+        int length = put(json, 0, ROUND_TRIES);
+        length = putNumber(json, length, Mastermind.getTries(round));
+        length = put(json, length, ROUND_BLACK);
+        length = putNumber(json, length, Mastermind.getGoodColorAndPosition(round));
+        length = put(json, length, WHITE);
+        length = putNumber(json, length, Mastermind.getGoodColors(round));
+        length = put(json, length, STATE);
+        length = put(json, length, STATES[game.getStateAfter(round)]);
+        json[length++] = '}';
+
+        return Arrays.copyOf(json, length);
+    }
+
+    private static int put(byte json[], int offset, byte part[]) {
+        System.arraycopy(part, 0, json, offset, part.length);
+        return offset + part.length;
+    }
+
+    /**
+     * Writes a positive number in decimal
+     * @return the offset after the number
+     */
+    private static int putNumber(byte json[], int offset, int number) {
+        int digits = 1;
+        for (int rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            json[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        return end;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * JSON of the parts of a game that only depend on its variant
+     */
+    private static class VariantJson {
+        final byte start[];
+        final byte quotedColors[][];
+        final int maxLength;
+
+        VariantJson(GameVariant variant) {
+            StringBuilder start = new StringBuilder();
+            start.append("{\"variant\":\"").append(variant.name).append("\"");
+            start.append(",\"pegs\":").append(variant.pegs);
+            start.append(",\"colors\":[");
+            quotedColors = new byte[variant.colors][];
+            int maxColorLength = 0;
+            for (int i = 0; i < variant.colors; i++) {
+                String quoted = "\"" + variant.colorNames[i] + "\"";
+                quotedColors[i] = ascii(quoted);
+                maxColorLength = Math.max(maxColorLength, quoted.length());
+                start.append(i == 0 ? "" : ",").append(quoted);
+            }
+            start.append("]");
+            start.append(",\"maxTries\":").append(variant.maxTries);
+            this.start = ascii(start.toString());
+
+            int maxRoundLength = GUESS.length + variant.pegs * (maxColorLength + 1) + BLACK.length + WHITE.length
+                    + 2 * MAX_NUMBER_LENGTH + 2;
+            maxLength = this.start.length + TRIES.length + MAX_NUMBER_LENGTH + STATE.length + STATES[0].length
+                    + ROUNDS.length + variant.maxTries * maxRoundLength + 2;
+        }
+    }
+}
@@ -1,81 +1,177 @@
 
-import java.time.LocalTime;
-import java.util.HashMap;
 import java.util.Random;
 
 /**
- * Class managing the game state of the client
+ * Class managing the game state of the client.
+ * A color combination is packed in an int, 4 bits per peg (the first peg in the lowest bits). A round packs
+ * the guessed combination in its lowest 32 bits, then the result of ScoringEngine (the number of good and
+ * well placed colors and the number of good colors in 4 bits each), then the number of rounds played with it.
+ * The replies are generated without the lock of the game, from a round or from a number of tries read once.
  */
 public class Mastermind {
-    public static final String GAME_COLORS[] = {"red", "blue", "yellow", "green", "white", "black"};
-    public HashMap<String, String> gameColors;
-    public static final int MAXIMUM_NUMBER_OF_TRY = 12;
+    //Approximate heap size of a classic game with all its rounds played, used for the session memory budget
+    public static final int ESTIMATED_SIZE_BYTES = 320;
+
+    private static final int BITS_PER_PEG = 4;
+    private static final int PEG_MASK = 0xF;
+    private static final int GUESS_BITS = 32;
+    private static final int TRIES_SHIFT = 40;
+    private static final int TRIES_MASK = 0xFF;
+
+    public static final int STATE_PLAYING = 0;
+    public static final int STATE_WON = 1;
+    public static final int STATE_LOST = 2;
+
+    //Returned instead of a round when the game was over before the guess, a round is never negative
+    public static final long GAME_OVER = -1;
+    //Returned instead of a round when the game was parked off-heap since it was read from the store, the round
+    //is played again on the game read again from the store
+    public static final long PARKED = -2;
+
+    public final GameVariant variant;
     public int nbOfTry = 0;
-    public String roundValues[] = new String[MAXIMUM_NUMBER_OF_TRY];
-    private String secretValues = "";
+    public final long roundValues[];
+    private int secretValues;
     public String gameId;
-    public boolean isGameOver;
-    public LocalTime creationTime;
+    public volatile boolean isGameOver;
+    public volatile long lastAccessTime;
+    //Log of the changes of the game, null if the games are not persisted
+    GameLog log;
+    //Set under the lock of the game once it is copied off-heap, this object is then not the game anymore
+    boolean isParked;
+
+    /**
+     * Public constructor of a classic game
+     */
+    public Mastermind()
+    {
+        this(GameVariant.CLASSIC);
+    }
 
     /**
      * Public constructor, generates a random alhpanumeric game ID that will be used
      * as cookie ID
+     * @param variant the shape of the game
      */
-    public Mastermind()
+    public Mastermind(GameVariant variant)
     {
+        this.variant = variant;
+        roundValues = new long[variant.maxTries];
         gameId = generateCookieId(HttpConstant.COOKIE_ID_LENGTH);
-        gameColors = new HashMap<>();
-        gameColors.put("red", "0");
-        gameColors.put("blue", "1");
-        gameColors.put("yellow", "2");
-        gameColors.put("green", "3");
-        gameColors.put("white", "4");
-        gameColors.put("black", "5");
-        creationTime = LocalTime.now();
+        lastAccessTime = System.nanoTime();
         isGameOver = false;
         generateSecretValues();
     }
 
     /**
-     * Saves the new combination from the client
-     * @param values list of values
-     * @return the number of good placed and good colors in byte
+     * Constructor of a game read back from the game log
+     * @param variant the shape of the game
+     * @param gameId the game ID
+     * @param secretValues the packed secret combination
      */
-    public String addNewRoundValues(String values) {
-        int nbGoodColorAndPosition = 0, nbGoodColors = 0;
-        roundValues[nbOfTry] = values;
-        String secretCode = secretValues;
+    Mastermind(GameVariant variant, String gameId, int secretValues)
+    {
+        this.variant = variant;
+        roundValues = new long[variant.maxTries];
+        this.gameId = gameId;
+        lastAccessTime = System.nanoTime();
+        isGameOver = false;
+        this.secretValues = secretValues;
+    }
+
+    /**
+     * Getter for the secret combination, saved in the game log
+     * @return the packed secret combination
+     */
+    int getSecretValues() {
+        return secretValues;
+    }
+
+    /**
+     * Saves the new combination from the client and scores it. The check of the end of the game and the new
+     * round are done under the lock of the game, so two requests on the same game never both play its last try.
+     * @param values the packed color combination
+     * @return the packed round, holding the combination, the number of good placed and of good colors and
+     * the number of tries, GAME_OVER if the game was already won or lost, or PARKED if the game was moved
+     * off-heap
+     */
+    public synchronized long addNewRoundValues(int values) {
+        if (isParked)
+            return PARKED;
+        if (isGameOver || isWon() || hasNoTryLeft())
+            return GAME_OVER;
 
         //Updates the timestamp of the game when updating the game state to signify it is still alive
-        this.creationTime = LocalTime.now();
-
-        // Find the good placed colors
-        for (int i = 0; i < values.length(); i++) {
-            if (values.charAt(i) == secretCode.charAt(i)) {
-                nbGoodColorAndPosition++;
-                values = values.substring(0, i) + values.substring(i+1);
-                secretCode = secretCode.substring(0, i) + secretCode.substring(i+1);
-                i--;
-            }
-        }
+        this.lastAccessTime = System.nanoTime();
 
-        // Find the good colors
-        for (int i = 0; i < values.length(); i++) {
-            int index  = values.indexOf(secretCode.charAt(i));
-            if (index != -1) {
-                nbGoodColors++;
-                values = values.substring(0, index) + values.substring(index+1);
-                secretCode = secretCode.substring(0, i) + secretCode.substring(i+1);
-                i--;
-            }
-        }
+        int result = ScoringEngine.score(secretValues, values, variant.pegs, variant.colors);
 
         // Save the results
-        roundValues[nbOfTry] += Integer.toString(nbGoodColorAndPosition) + Integer.toString(nbGoodColors);
-        printColorCode(roundValues[nbOfTry]);
+        long round = (values & 0xFFFFFFFFL) | (long) result << GUESS_BITS | (long) (nbOfTry + 1) << TRIES_SHIFT;
+        roundValues[nbOfTry] = round;
         nbOfTry++;
+        isGameOver = isWon() || hasNoTryLeft();
+
+        //Logged once the game holds the round, so a snapshot taken after the record always has it
+        if (log != null)
+            log.appendGuess(gameId, nbOfTry - 1, values);
+
+        return round;
+    }
+
+    /**
+     * Tells if the last round found the secret combination
+     * @return true if the game is won
+     */
+    public boolean isWon() {
+        return nbOfTry > 0 && getGoodColorAndPosition(roundValues[nbOfTry - 1]) == variant.pegs;
+    }
 
-        return Integer.toString(nbOfTry)+ "_" + Integer.toString(nbGoodColorAndPosition)+ "_" + Integer.toString(nbGoodColors);
+    /**
+     * Tells if every try was used
+     * @return true if no round is left
+     */
+    public boolean hasNoTryLeft() {
+        return nbOfTry == variant.maxTries;
+    }
+
+    /**
+     * Gives the state of the game from its last round
+     * @return STATE_PLAYING, STATE_WON or STATE_LOST
+     */
+    public int getState() {
+        if (isWon())
+            return STATE_WON;
+        return hasNoTryLeft() ? STATE_LOST : STATE_PLAYING;
+    }
+
+    /**
+     * Reads the number of rounds played under the lock of the game. The rounds before it are complete and
+     * never change, so a reply can be generated from them without the lock.
+     * @return the number of rounds played
+     */
+    public synchronized int getPlayedTries() {
+        return nbOfTry;
+    }
+
+    /**
+     * Gives the state of the game once some rounds were played
+     * @param tries the number of rounds played, from getPlayedTries
+     * @return STATE_PLAYING, STATE_WON or STATE_LOST
+     */
+    public int getState(int tries) {
+        return tries == 0 ? STATE_PLAYING : getStateAfter(roundValues[tries - 1]);
+    }
+
+    /**
+     * Gives the state of the game right after a round
+     * @param round the packed round
+     * @return STATE_PLAYING, STATE_WON or STATE_LOST
+     */
+    public int getStateAfter(long round) {
+        if (getGoodColorAndPosition(round) == variant.pegs)
+            return STATE_WON;
+        return getTries(round) == variant.maxTries ? STATE_LOST : STATE_PLAYING;
     }
 
     /**
@@ -85,32 +181,74 @@ public class Mastermind {
         Random rand = new Random();
 
         // Get random value
-        while (secretValues.length() < 4)
-            secretValues += Integer.toString(rand.nextInt(GAME_COLORS.length));
+        secretValues = 0;
+        for (int i = 0; i < variant.pegs; i++)
+            secretValues |= rand.nextInt(variant.colors) << (i * BITS_PER_PEG);
+    }
 
-        // secretValues = "0012";
+    /**
+     * Packs the colors chosen by the client.
+     * @param colors the color names, one per peg
+     * @return the packed combination, or -1 if a color is missing or is not part of the game variant
+     */
+    public int encodeColors(String colors[]) {
+        if (colors.length != variant.pegs)
+            return -1;
 
-        // Display the code
-        String out = "[" + gameId + "] Secrect Colors : ";
-        for (int i = 0; i < secretValues.length(); i++) {
-            out += GAME_COLORS[Integer.parseInt(secretValues.substring(i, i+1))] + ", ";
+        int values = 0;
+        for (int i = 0; i < variant.pegs; i++) {
+            int index = variant.getColorIndex(colors[i]);
+            if (index == -1)
+                return -1;
+            values |= index << (i * BITS_PER_PEG);
         }
+        return values;
     }
 
     /**
-     * Print the color from in to string in the terminal
-     * @param message int in a string
+     * Reads the color of a peg in a packed combination
+     * @param values the packed combination
+     * @param position the peg position, from 0
+     * @return the color index
      */
-    public void printColorCode(String message) {
-        String out = "[" + gameId + "] " + nbOfTry+1 + " - ";
+    public static int getPeg(int values, int position) {
+        return (values >>> (position * BITS_PER_PEG)) & PEG_MASK;
+    }
 
-        for (int i = 0; i < message.length()-2; i++) {
-            out += GAME_COLORS[Integer.parseInt(message.substring(i, i+1))] + ", ";
-        }
+    /**
+     * Reads the number of good and well placed colors of a packed round
+     * @param round the packed round
+     * @return the number of good and well placed colors
+     */
+    public static int getGoodColorAndPosition(long round) {
+        return ScoringEngine.getBlack((int) (round >>> GUESS_BITS));
+    }
+
+    /**
+     * Reads the number of good but misplaced colors of a packed round
+     * @param round the packed round
+     * @return the number of good colors
+     */
+    public static int getGoodColors(long round) {
+        return ScoringEngine.getWhite((int) (round >>> GUESS_BITS));
+    }
 
-        out += "Good and Well Placed : " + message.charAt(message.length()-2);
-        out += ", Good Color : " + message.charAt(message.length()-1);
+    /**
+     * Reads the number of rounds played when a round was added, this round included
+     * @param round the packed round
+     * @return the number of tries
+     */
+    public static int getTries(long round) {
+        return (int) (round >>> TRIES_SHIFT) & TRIES_MASK;
+    }
 
+    /**
+     * Reads the guessed combination of a packed round
+     * @param round the packed round
+     * @return the packed combination
+     */
+    public static int getGuess(long round) {
+        return (int) round;
     }
 
     /**
@@ -0,0 +1,119 @@
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the server, given in the Prometheus text format on /metrics.
+ * Every stage of a request has its histogram : accept (from the accepted socket to its registration on a
+ * selector), parse, queue (from the complete request to the worker), session (finding or creating the game),
+ * scoring, render and write (one gathering write to the socket). The values are counted since the start.
+ */
+public class Metrics {
+    public static final String URL = "/metrics";
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final LatencyHistogram ACCEPT = new LatencyHistogram();
+    public static final LatencyHistogram PARSE = new LatencyHistogram();
+    public static final LatencyHistogram QUEUE = new LatencyHistogram();
+    public static final LatencyHistogram SESSION = new LatencyHistogram();
+    public static final LatencyHistogram SCORING = new LatencyHistogram();
+    public static final LatencyHistogram RENDER = new LatencyHistogram();
+    public static final LatencyHistogram WRITE = new LatencyHistogram();
+
+    public static final LongAdder ACCEPTED_CONNECTIONS = new LongAdder();
+    public static final LongAdder REQUESTS = new LongAdder();
+    public static final LongAdder REJECTED_REQUESTS = new LongAdder();
+    public static final LongAdder WEBSOCKET_MESSAGES = new LongAdder();
+    public static final LongAdder BYTES_WRITTEN = new LongAdder();
+    public static final LongAdder ACCESS_LOG_DROPPED = new LongAdder();
+
+    private static final String STAGES[] = {"accept", "parse", "queue", "session", "scoring", "render", "write"};
+    private static final LatencyHistogram STAGE_HISTOGRAMS[] = {ACCEPT, PARSE, QUEUE, SESSION, SCORING, RENDER, WRITE};
+    private static final double QUANTILES[] = {0.5, 0.9, 0.99, 0.999};
+
+    private Metrics() {
+    }
+
+    /**
+     * Gives the reply of the metrics url
+     * @param keepAlive false if the connection is closed after the reply
+     * @return the reply
+     */
+    public static HttpReply createReply(boolean keepAlive) {
+        HashMap<String, String> extraHeaders = new HashMap<>();
+        extraHeaders.put("Cache-Control:", "no-store");
+        if (!keepAlive) {
+            extraHeaders.put("Connection:", "close");
+        }
+        return HttpFactory.createHttpReplyFromBytes(render().getBytes(StandardCharsets.UTF_8), CONTENT_TYPE, extraHeaders);
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format
+     * @return the metrics
+     */
+    public static String render() {
+        StringBuilder text = new StringBuilder(4096);
+
+        text.append("# HELP mastermind_stage_seconds Duration of the stages of the requests\n");
+        text.append("# TYPE mastermind_stage_seconds summary\n");
+        for (int i = 0; i < STAGES.length; i++) {
+            LatencyHistogram histogram = STAGE_HISTOGRAMS[i];
+            long quantiles[] = histogram.getQuantiles(QUANTILES);
+            for (int q = 0; q < QUANTILES.length; q++) {
+                text.append("mastermind_stage_seconds{stage=\"").append(STAGES[i]).append("\",quantile=\"")
+                        .append(QUANTILES[q]).append("\"} ").append(seconds(quantiles[q])).append('\n');
+            }
+            text.append("mastermind_stage_seconds_sum{stage=\"").append(STAGES[i]).append("\"} ")
+                    .append(seconds(histogram.getSum())).append('\n');
+            text.append("mastermind_stage_seconds_count{stage=\"").append(STAGES[i]).append("\"} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+
+        text.append("# HELP mastermind_stage_max_seconds Longest duration of the stages of the requests\n");
+        text.append("# TYPE mastermind_stage_max_seconds gauge\n");
+        for (int i = 0; i < STAGES.length; i++) {
+            text.append("mastermind_stage_max_seconds{stage=\"").append(STAGES[i]).append("\"} ")
+                    .append(seconds(STAGE_HISTOGRAMS[i].getMax())).append('\n');
+        }
+
+        counter(text, "mastermind_connections_accepted_total", "Connections accepted", ACCEPTED_CONNECTIONS.sum());
+        counter(text, "mastermind_requests_total", "HTTP requests received", REQUESTS.sum());
+        counter(text, "mastermind_requests_rejected_total", "HTTP requests answered with a 503", REJECTED_REQUESTS.sum());
+        counter(text, "mastermind_websocket_messages_total", "WebSocket guesses received", WEBSOCKET_MESSAGES.sum());
+        counter(text, "mastermind_written_bytes_total", "Bytes written to the sockets", BYTES_WRITTEN.sum());
+        counter(text, "mastermind_access_log_dropped_total", "Access log lines dropped because the writer was behind", ACCESS_LOG_DROPPED.sum());
+
+        SessionStore sessions = WebServer.sessions;
+        if (sessions != null) {
+            gauge(text, "mastermind_games", "Games in the store, parked or not", sessions.size());
+            gauge(text, "mastermind_parked_games", "Games parked off-heap", sessions.parkedSize());
+            counter(text, "mastermind_games_created_total", "Games created", sessions.getCreatedGames());
+            counter(text, "mastermind_games_evicted_total", "Games evicted because the store was full", sessions.getCapacityEvictions());
+            counter(text, "mastermind_games_expired_total", "Games deleted because they expired", sessions.getExpiryEvictions());
+            counter(text, "mastermind_games_parked_total", "Games parked off-heap", sessions.getParkedGames());
+            counter(text, "mastermind_games_unparked_total", "Parked games put back on the heap", sessions.getUnparkedGames());
+        }
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        metric(text, name, help, "counter", value);
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, long value) {
+        metric(text, name, help, "gauge", value);
+    }
+
+    private static void metric(StringBuilder text, String name, String help, String type, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
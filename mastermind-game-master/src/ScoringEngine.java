@@ -0,0 +1,79 @@
+
+/**
+ * Computes the feedback of a guess against the secret combination without allocating anything.
+ * The combinations are packed as in Mastermind, 4 bits per peg. The colors are counted in a histogram
+ * held in a single long, 4 bits per color, so no array is needed.
+ * The result is packed too : the number of good and well placed colors (black pegs) in the lowest
+ * 4 bits and the number of good but misplaced colors (white pegs) in the next 4 bits.
+ */
+public final class ScoringEngine {
+    private static final int BITS = 4;
+    private static final int MASK = 0xF;
+
+    private ScoringEngine() {
+    }
+
+    /**
+     * Scores a guess.
+     * @param secret the packed secret combination
+     * @param guess the packed guessed combination
+     * @param pegs the number of pegs of the combinations
+     * @param colors the number of colors of the game
+     * @return the packed result
+     */
+    public static int score(int secret, int guess, int pegs, int colors) {
+        int black = 0;
+        long secretHistogram = 0;
+        long guessHistogram = 0;
+
+        // Find the good placed colors, and count the colors of the other pegs
+        for (int i = 0; i < pegs; i++) {
+            int shift = i * BITS;
+            int secretPeg = (secret >>> shift) & MASK;
+            int guessPeg = (guess >>> shift) & MASK;
+            if (secretPeg == guessPeg) {
+                black++;
+            } else {
+                secretHistogram += 1L << (secretPeg * BITS);
+                guessHistogram += 1L << (guessPeg * BITS);
+            }
+        }
+
+        // A color is misplaced as many times as it appears in both the secret and the guess
+        int white = 0;
+        for (int color = 0; color < colors; color++) {
+            int shift = color * BITS;
+            white += Math.min((int) (secretHistogram >>> shift) & MASK, (int) (guessHistogram >>> shift) & MASK);
+        }
+
+        return pack(black, white);
+    }
+
+    /**
+     * Packs a result
+     * @param black the number of good and well placed colors
+     * @param white the number of good but misplaced colors
+     * @return the packed result
+     */
+    public static int pack(int black, int white) {
+        return black | white << BITS;
+    }
+
+    /**
+     * Reads the number of good and well placed colors of a result
+     * @param result the packed result
+     * @return the number of black pegs
+     */
+    public static int getBlack(int result) {
+        return result & MASK;
+    }
+
+    /**
+     * Reads the number of good but misplaced colors of a result
+     * @param result the packed result
+     * @return the number of white pegs
+     */
+    public static int getWhite(int result) {
+        return (result >>> BITS) & MASK;
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Event loop reading the client sockets without blocking. Only complete requests are handed to the
+ * worker threads, so a slow or idle client can not stall the other connections.
+ */
+public class SelectorThread implements Runnable {
+
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    private final Selector selector;
+    private final ServerConfig config;
+    private final ExecutorService executor;
+    private final ConcurrentLinkedQueue<ClientConnection> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ClientConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private long nextSweep = System.nanoTime();
+
+    public SelectorThread(ServerConfig config, ExecutorService executor) throws IOException {
+        this.selector = Selector.open();
+        this.config = config;
+        this.executor = executor;
+    }
+
+    /**
+     * Hands a newly accepted client to this selector. Can be called from any thread.
+     * @param channel the client socket channel
+     */
+    public void addChannel(SocketChannel channel) {
+        Metrics.ACCEPTED_CONNECTIONS.increment();
+        pendingChannels.add(new ClientConnection(channel, this, config));
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the selector to write the pending bytes of a connection. Can be called from any thread.
+     * @param connection the client connection
+     */
+    void requestWrite(ClientConnection connection) {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs a task on the worker threads. Can be called from any thread.
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Loops on the selector until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select(SWEEP_INTERVAL_MS);
+                registerPendingChannels();
+                flushPendingWrites();
+                closeExpiredConnections();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    handleKey(key);
+                }
+            } catch (IOException ex) {
+                System.err.println("Error in selector loop : " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers the channels accepted since the last loop.
+     */
+    private void registerPendingChannels() {
+        ClientConnection connection;
+        while ((connection = pendingChannels.poll()) != null) {
+            SocketChannel channel = connection.getChannel();
+            try {
+                channel.configureBlocking(false);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                Metrics.ACCEPT.recordSince(connection.acceptTime);
+            } catch (IOException ex) {
+                System.err.println("Error while registering client : " + ex.getMessage());
+                connection.closeNow();
+            }
+        }
+    }
+
+    /**
+     * Tries to write the replies produced by the workers since the last loop.
+     */
+    private void flushPendingWrites() {
+        ClientConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            write(connection);
+        }
+    }
+
+    /**
+     * Closes the connections idle for longer than the keep-alive timeout, at most once per sweep interval.
+     */
+    private void closeExpiredConnections() {
+        long now = System.nanoTime();
+        if (now < nextSweep)
+            return;
+        nextSweep = now + SWEEP_INTERVAL_MS * 1_000_000L;
+
+        for (SelectionKey key : selector.keys()) {
+            ClientConnection connection = (ClientConnection) key.attachment();
+            if (connection.isExpired(now))
+                connection.closeNow();
+        }
+    }
+
+    /**
+     * Dispatches a ready key to the read or the write operation.
+     * @param key the selected key
+     */
+    private void handleKey(SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        if (!key.isValid()) {
+            connection.closeNow();
+            return;
+        }
+
+        if (key.isWritable()) {
+            write(connection);
+        }
+        else if (key.isReadable()) {
+            read(connection);
+        }
+    }
+
+    /**
+     * Reads the available bytes and dispatches the requests to a worker once complete.
+     * @param connection the client connection
+     */
+    private void read(ClientConnection connection) {
+        try {
+            dispatch(connection, connection.onReadable());
+        } catch (IOException ex) {
+            connection.closeNow();
+        }
+    }
+
+    /**
+     * Gives the complete requests of a connection to a worker, which handles them in order.
+     * @param connection the client connection
+     * @param requests the parsed requests, nothing is done if it is null
+     */
+    private void dispatch(ClientConnection connection, HttpRequest requests[]) {
+        if (requests != null) {
+            //Stop reading until the worker answered these requests
+            connection.setInterest(0);
+            executor.execute(new WorkerThread(connection, requests));
+        }
+    }
+
+    /**
+     * Writes the pending bytes and waits for the socket if it is full.
+     * @param connection the client connection
+     */
+    private void write(ClientConnection connection) {
+        if (connection.isClosed())
+            return;
+
+        try {
+            if (!connection.onWritable()) {
+                //Wait for the socket to accept the rest
+                connection.setInterest(SelectionKey.OP_WRITE);
+            }
+            else if (connection.takeResume()) {
+                //Keep-alive : read the next requests, which may already be in the buffer
+                connection.setInterest(SelectionKey.OP_READ);
+                dispatch(connection, connection.extractRequests());
+            }
+            else if (!connection.isClosed()) {
+                //Wait for the worker if it did not answer yet
+                connection.setInterest(connection.isRequestInFlight() ? 0 : SelectionKey.OP_READ);
+            }
+        } catch (IOException ex) {
+            connection.closeNow();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+
+/**
+ * Holds the server settings read from the program arguments. The first argument stays the maximum number
+ * of worker threads, the other settings are given as "--name=value" options.
+ */
+public class ServerConfig {
+
+    public static final int DEFAULT_PORT = 8010;
+    public static final int DEFAULT_SELECTOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int DEFAULT_KEEP_ALIVE_TIMEOUT_SECONDS = 15;
+    public static final int DEFAULT_KEEP_ALIVE_MAX_REQUESTS = 100;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    public static final int DEFAULT_MAX_SESSIONS = 100_000;
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 16;
+    public static final int DEFAULT_PARK_AFTER_SECONDS = 60;
+
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    public int port = DEFAULT_PORT;
+    public int maxThread = WebServer.NUMBER_THREAD;
+    public int selectorThreads = DEFAULT_SELECTOR_THREADS;
+    public int keepAliveTimeoutSeconds = DEFAULT_KEEP_ALIVE_TIMEOUT_SECONDS;
+    public int keepAliveMaxRequests = DEFAULT_KEEP_ALIVE_MAX_REQUESTS;
+    public String executionMode = MODE_PLATFORM;
+    public int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    public int maxSessions = DEFAULT_MAX_SESSIONS;
+    public int sessionMemoryMegabytes = 0;
+    public String assetDirectory = null;
+    public int maxPipelinedRequests = DEFAULT_MAX_PIPELINED_REQUESTS;
+    public String logDirectory = null;
+    public int maxParkedSessions = 0;
+    public int parkAfterSeconds = DEFAULT_PARK_AFTER_SECONDS;
+    public String accessLogFile = null;
+    public int accessLogSampling = 1;
+
+    /**
+     * Reads the program arguments.
+     * @param args the program arguments
+     * @return the server configuration
+     * @throws IllegalArgumentException if an argument is unknown or invalid
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            //Keep the historical positional argument : the maximum number of threads
+            if (i == 0 && !arg.startsWith("--")) {
+                config.maxThread = parsePositive(arg);
+                continue;
+            }
+
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator == -1)
+                throw new IllegalArgumentException("unknown argument " + arg);
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (name) {
+                case "port":
+                    config.port = parsePositive(value);
+                    break;
+                case "selectors":
+                    config.selectorThreads = parsePositive(value);
+                    break;
+                case "keepalive-timeout":
+                    config.keepAliveTimeoutSeconds = parsePositive(value);
+                    break;
+                case "keepalive-max":
+                    config.keepAliveMaxRequests = parsePositive(value);
+                    break;
+                case "mode":
+                    if (!value.equals(MODE_PLATFORM) && !value.equals(MODE_VIRTUAL))
+                        throw new IllegalArgumentException("unknown execution mode " + value);
+                    config.executionMode = value;
+                    break;
+                case "queue":
+                    config.queueCapacity = parsePositive(value);
+                    break;
+                case "max-sessions":
+                    config.maxSessions = parsePositive(value);
+                    break;
+                case "session-memory-mb":
+                    config.sessionMemoryMegabytes = parsePositive(value);
+                    break;
+                case "pipeline":
+                    config.maxPipelinedRequests = parsePositive(value);
+                    break;
+                case "assets":
+                    config.assetDirectory = value;
+                    break;
+                case "wal":
+                    config.logDirectory = value;
+                    break;
+                case "parked-sessions":
+                    config.maxParkedSessions = parsePositive(value);
+                    break;
+                case "park-after":
+                    config.parkAfterSeconds = parsePositive(value);
+                    break;
+                case "access-log":
+                    config.accessLogFile = value;
+                    break;
+                case "access-log-sample":
+                    config.accessLogSampling = parsePositive(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option --" + name);
+            }
+        }
+
+        return config;
+    }
+
+    /**
+     * Parses a strictly positive integer.
+     * @param value the string value
+     * @return the integer value
+     */
+    private static int parsePositive(String value) {
+        int number = Integer.parseInt(value);
+        if (number <= 0)
+            throw new NumberFormatException("the value must be positive : " + value);
+        return number;
+    }
+}
@@ -0,0 +1,485 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the games of the players, indexed by their game ID (the cookie value). The games are spread over
+ * several segments each guarded by its own lock, so the requests of different players rarely wait for
+ * each other.
+ * Every segment keeps its games from the least to the most recently used one, so the expired games are always
+ * at the head of the segments and only the games that are due are looked at when deleting them. The number
+ * of games is counted for the whole store : when it goes over the maximum, the least recently used game of a
+ * few segments chosen at random is evicted, close to the least recently used game of the store.
+ * With a game log, every game created, played or removed is written to the log, so the games survive a
+ * restart.
+ * Optionally, the games that are not played for a while are parked in an off-heap GameSlab of their segment
+ * and put back on the heap when their player comes back : the heap only holds the games being played, the
+ * parked games still expire after the same time.
+ */
+public class SessionStore {
+    private static final int DEFAULT_SEGMENTS = 64;
+    //Segments looked at to choose the game to evict
+    private static final int EVICTION_SAMPLES = 4;
+
+    private final Segment segments[];
+    private final int segmentMask;
+    private final int maxSessions;
+    //Games on the heap, in every segment
+    private final AtomicInteger heapSize = new AtomicInteger();
+    private final long maxSessionTimeNanos;
+    private final long parkAfterNanos;
+    private volatile GameLog log;
+
+    private final LongAdder createdGames = new LongAdder();
+    private final LongAdder capacityEvictions = new LongAdder();
+    private final LongAdder expiryEvictions = new LongAdder();
+    private final LongAdder parkedGames = new LongAdder();
+    private final LongAdder unparkedGames = new LongAdder();
+
+    /**
+     * Public constructor
+     * @param maxSessions the maximum number of games kept in memory
+     * @param maxSessionTimeSeconds the time a game stays alive without being used
+     */
+    public SessionStore(int maxSessions, int maxSessionTimeSeconds) {
+        this(DEFAULT_SEGMENTS, maxSessions, maxSessionTimeSeconds, 0, 0);
+    }
+
+    /**
+     * Public constructor of a store parking the idle games off-heap
+     * @param maxSessions the maximum number of games kept on the heap
+     * @param maxSessionTimeSeconds the time a game stays alive without being used
+     * @param maxParkedSessions the maximum number of games parked off-heap, 0 to never park a game
+     * @param parkAfterSeconds the time after which a game not used is parked
+     */
+    public SessionStore(int maxSessions, int maxSessionTimeSeconds, int maxParkedSessions, int parkAfterSeconds) {
+        this(DEFAULT_SEGMENTS, maxSessions, maxSessionTimeSeconds, maxParkedSessions, parkAfterSeconds);
+    }
+
+    /**
+     * Public constructor
+     * @param segmentCount the number of segments, rounded up to a power of two
+     * @param maxSessions the maximum number of games kept in memory
+     * @param maxSessionTimeSeconds the time a game stays alive without being used
+     * @param maxParkedSessions the maximum number of games parked off-heap, 0 to never park a game
+     * @param parkAfterSeconds the time after which a game not used is parked
+     */
+    public SessionStore(int segmentCount, int maxSessions, int maxSessionTimeSeconds, int maxParkedSessions,
+                        int parkAfterSeconds) {
+        int size = 1;
+        while (size < segmentCount)
+            size <<= 1;
+        this.segments = new Segment[size];
+        int slabCapacity = (maxParkedSessions + size - 1) / size;
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(slabCapacity);
+        }
+        this.segmentMask = size - 1;
+        this.maxSessions = Math.max(1, maxSessions);
+        this.maxSessionTimeNanos = TimeUnit.SECONDS.toNanos(maxSessionTimeSeconds);
+        this.parkAfterNanos = maxParkedSessions > 0 ? TimeUnit.SECONDS.toNanos(parkAfterSeconds) : 0;
+    }
+
+    /**
+     * Computes the maximum number of games from the configuration, the smallest of the session limit
+     * and of what fits in the memory budget.
+     * @param config the server configuration
+     * @return the maximum number of games
+     */
+    public static int maxSessionsFromConfig(ServerConfig config) {
+        if (config.sessionMemoryMegabytes <= 0)
+            return config.maxSessions;
+
+        long budget = config.sessionMemoryMegabytes * 1024L * 1024L / Mastermind.ESTIMATED_SIZE_BYTES;
+        return (int) Math.max(1, Math.min(config.maxSessions, budget));
+    }
+
+    /**
+     * Finds the game of a player, or creates a new one if the player has no game, if it is expired or if it
+     * is not of the wanted variant.
+     * @param gameId the game ID read from the cookie, can be null or empty
+     * @param variant the wanted game variant, null to accept any variant (classic for a new game)
+     * @return the game of the player
+     */
+    public Mastermind getOrCreate(String gameId, GameVariant variant) {
+        if (gameId != null && !gameId.isEmpty()) {
+            Mastermind game = get(gameId);
+            if (game != null) {
+                if (variant == null || game.variant == variant)
+                    return game;
+
+                //The player starts a game of another variant
+                remove(gameId);
+            }
+        }
+
+        return create(variant == null ? GameVariant.CLASSIC : variant);
+    }
+
+    /**
+     * Finds the game of a player without creating one. Marks the game as used.
+     * @param gameId the game ID
+     * @return the game, or null if there is no valid game with this ID
+     */
+    public Mastermind get(String gameId) {
+        Segment segment = segmentFor(gameId);
+        Mastermind game;
+        synchronized (segment) {
+            //Moves the game at the tail of the segment
+            game = segment.games.get(gameId);
+            boolean isParked = false;
+            if (game == null && segment.parked != null) {
+                game = segment.parked.unpark(gameId);
+                isParked = true;
+            }
+            if (game == null)
+                return null;
+
+            long now = System.nanoTime();
+            if (isExpired(game, now)) {
+                //Delete expired game
+                if (!isParked) {
+                    segment.games.remove(gameId);
+                    heapSize.decrementAndGet();
+                }
+                logRemove(gameId);
+                expiryEvictions.increment();
+                return null;
+            }
+
+            game.lastAccessTime = now;
+            if (!isParked)
+                return game;
+
+            //Back on the heap while its player is playing
+            game.log = log;
+            segment.games.put(gameId, game);
+            heapSize.incrementAndGet();
+            unparkedGames.increment();
+        }
+        evictIfFull();
+        return game;
+    }
+
+    /**
+     * Creates a new game and stores it. Evicts a least recently used game if the store is full.
+     * @param variant the game variant
+     * @return the new game
+     */
+    public Mastermind create(GameVariant variant) {
+        while (true) {
+            Mastermind game = new Mastermind(variant);
+            Segment segment = segmentFor(game.gameId);
+            synchronized (segment) {
+                //Game IDs are random, retry in the very unlikely case of a collision
+                if (segment.parked != null && segment.parked.contains(game.gameId))
+                    continue;
+                if (segment.games.putIfAbsent(game.gameId, game) != null)
+                    continue;
+                heapSize.incrementAndGet();
+
+                GameLog gameLog = log;
+                if (gameLog != null) {
+                    game.log = gameLog;
+                    gameLog.appendCreate(game);
+                }
+            }
+            evictIfFull();
+            createdGames.increment();
+            return game;
+        }
+    }
+
+    /**
+     * Removes a game, for example when it is over.
+     * @param gameId the game ID
+     */
+    public void remove(String gameId) {
+        Segment segment = segmentFor(gameId);
+        synchronized (segment) {
+            boolean isRemoved = segment.games.remove(gameId) != null;
+            if (isRemoved)
+                heapSize.decrementAndGet();
+            else
+                isRemoved = segment.parked != null && segment.parked.remove(gameId);
+            if (isRemoved)
+                logRemove(gameId);
+        }
+    }
+
+    /**
+     * Puts back a game read from the game log, without writing it to the log again. Replaces the game
+     * with the same ID.
+     * @param game the game
+     */
+    public void restore(Mastermind game) {
+        Segment segment = segmentFor(game.gameId);
+        synchronized (segment) {
+            if (segment.parked != null)
+                segment.parked.remove(game.gameId);
+            if (segment.games.put(game.gameId, game) == null)
+                heapSize.incrementAndGet();
+        }
+        evictIfFull();
+    }
+
+    /**
+     * Starts writing the changes of the games to a log, once the games of the log are restored
+     * @param gameLog the game log
+     */
+    public void setLog(GameLog gameLog) {
+        forEach(game -> game.log = gameLog);
+        this.log = gameLog;
+    }
+
+    /**
+     * Calls an action on every game, one segment locked at a time. The parked games are given as copies.
+     * @param action the action, it must not use the store
+     */
+    public void forEach(Consumer<Mastermind> action) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                if (segment.parked != null)
+                    segment.parked.forEach(action);
+                for (Mastermind game : segment.games.values()) {
+                    action.accept(game);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parks off-heap the games not used for a while. Only the games that are due are looked at.
+     * @return the number of games parked
+     */
+    public int parkIdle() {
+        if (parkAfterNanos == 0)
+            return 0;
+
+        long now = System.nanoTime();
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Mastermind> iterator = segment.games.values().iterator();
+                while (iterator.hasNext()) {
+                    Mastermind game = iterator.next();
+                    if (now - game.lastAccessTime <= parkAfterNanos)
+                        break;
+                    iterator.remove();
+                    heapSize.decrementAndGet();
+                    park(segment, game);
+                    count++;
+                }
+            }
+        }
+        parkedGames.add(count);
+        return count;
+    }
+
+    /**
+     * Deletes the expired games. Only looks at the head of every segment, where the least recently used
+     * games are, and locks one segment at a time.
+     * @return the number of games deleted
+     */
+    public int removeExpired() {
+        int removed = 0;
+        long now = System.nanoTime();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Mastermind> iterator = segment.games.values().iterator();
+                while (iterator.hasNext()) {
+                    Mastermind game = iterator.next();
+                    if (!isExpired(game, now))
+                        break;
+                    iterator.remove();
+                    heapSize.decrementAndGet();
+                    logRemove(game.gameId);
+                    removed++;
+                }
+
+                if (segment.parked != null) {
+                    String gameId;
+                    while ((gameId = segment.parked.pollExpired(now, maxSessionTimeNanos)) != null) {
+                        logRemove(gameId);
+                        removed++;
+                    }
+                }
+            }
+        }
+        expiryEvictions.add(removed);
+        return removed;
+    }
+
+    /**
+     * Counts the games in the store, parked or not.
+     * @return the number of games
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.games.size() + (segment.parked == null ? 0 : segment.parked.size());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Counts the games parked off-heap.
+     * @return the number of parked games
+     */
+    public int parkedSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.parked == null ? 0 : segment.parked.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Getter for the number of games created since the start
+     * @return the number of games created
+     */
+    public long getCreatedGames() {
+        return createdGames.sum();
+    }
+
+    /**
+     * Getter for the number of games evicted because the store was full
+     * @return the number of evicted games
+     */
+    public long getCapacityEvictions() {
+        return capacityEvictions.sum();
+    }
+
+    /**
+     * Getter for the number of games parked off-heap since the start
+     * @return the number of games parked
+     */
+    public long getParkedGames() {
+        return parkedGames.sum();
+    }
+
+    /**
+     * Getter for the number of parked games put back on the heap since the start
+     * @return the number of games put back on the heap
+     */
+    public long getUnparkedGames() {
+        return unparkedGames.sum();
+    }
+
+    /**
+     * Getter for the number of games deleted because they expired
+     * @return the number of expired games
+     */
+    public long getExpiryEvictions() {
+        return expiryEvictions.sum();
+    }
+
+    /**
+     * Evicts games while the store holds too many, or parks them if the store parks the games. The game
+     * evicted is the least recently used one of a few segments chosen at random, or of all the segments if
+     * these are empty. Called without any segment locked, the segments are locked one at a time.
+     */
+    private void evictIfFull() {
+        while (heapSize.get() > maxSessions) {
+            Segment oldest = null;
+            long oldestTime = 0;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < EVICTION_SAMPLES + segments.length && (oldest == null || i < EVICTION_SAMPLES); i++) {
+                Segment segment = i < EVICTION_SAMPLES ? segments[random.nextInt(segments.length)] : segments[i - EVICTION_SAMPLES];
+                synchronized (segment) {
+                    if (segment.games.isEmpty())
+                        continue;
+                    long time = segment.games.values().iterator().next().lastAccessTime;
+                    if (oldest == null || time - oldestTime < 0) {
+                        oldest = segment;
+                        oldestTime = time;
+                    }
+                }
+            }
+            if (oldest == null)
+                return;
+
+            synchronized (oldest) {
+                //Another thread may have evicted a game meanwhile
+                if (heapSize.get() <= maxSessions || oldest.games.isEmpty())
+                    continue;
+                Iterator<Mastermind> eldest = oldest.games.values().iterator();
+                Mastermind game = eldest.next();
+                eldest.remove();
+                heapSize.decrementAndGet();
+                if (oldest.parked != null) {
+                    park(oldest, game);
+                    parkedGames.increment();
+                }
+                else {
+                    logRemove(game.gameId);
+                    capacityEvictions.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Parks a game, the least recently used parked game is evicted if the slab is full. The game is copied
+     * under its lock, a worker still holding it then gets PARKED for its round and reads the game again.
+     */
+    private void park(Segment segment, Mastermind game) {
+        String evicted;
+        synchronized (game) {
+            game.isParked = true;
+            evicted = segment.parked.park(game);
+        }
+        if (evicted != null) {
+            logRemove(evicted);
+            capacityEvictions.increment();
+        }
+    }
+
+    private void logRemove(String gameId) {
+        GameLog gameLog = log;
+        if (gameLog != null)
+            gameLog.appendRemove(gameId);
+    }
+
+    /**
+     * Verifies if a game has not been used for more than its allowed time to live.
+     * @param game the game
+     * @param now the current System.nanoTime()
+     * @return true if the game is expired
+     */
+    private boolean isExpired(Mastermind game, long now) {
+        return now - game.lastAccessTime > maxSessionTimeNanos;
+    }
+
+    /**
+     * Finds the segment of a game ID.
+     * @param gameId the game ID
+     * @return the segment holding this ID
+     */
+    private Segment segmentFor(String gameId) {
+        int hash = gameId.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & segmentMask];
+    }
+
+    /**
+     * Part of the store guarded by its own lock. The games are kept in access order.
+     */
+    private static class Segment {
+        final LinkedHashMap<String, Mastermind> games = new LinkedHashMap<>(16, 0.75f, true);
+        //Games parked off-heap, null if the store does not park the games
+        final GameSlab parked;
+
+        Segment(int slabCapacity) {
+            this.parked = slabCapacity > 0 ? new GameSlab(slabCapacity) : null;
+        }
+    }
+}
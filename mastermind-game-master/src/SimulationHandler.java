@@ -0,0 +1,219 @@
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Batch endpoint for the automated solvers, which play many games without the page.
+ * GET /simulate?games=N&variant=name creates N games and gives their IDs, one per line.
+ * POST /simulate takes a text body of guesses, whatever its Content-Type, one per line : the game ID then the color names
+ * separated by spaces or commas. The guesses of a game are played in order, the games are played in parallel
+ * and the results are streamed back (chunked) as soon as a group of games is done, one line per guess :
+ * "gameId tries black white state", "gameId error" for bad colors, "gameId unknown" for a game that does not
+ * exist (anymore) and "gameId over" for a guess after the end of the game. A game is removed once over.
+ * A batch is limited like any request body, to HttpParser.MAX_CONTENT_LENGTH (64 KB, about 1,300 guesses of
+ * the classic game), a larger one gets a 413 stating the limit. A bigger tournament is sent in several
+ * batches, which can be pipelined on one connection.
+ */
+public class SimulationHandler {
+    public static final String URL = "/simulate";
+    public static final int MAX_CREATED_GAMES = 1000;
+
+    private static final String STATES[] = {"playing", "won", "lost"};
+    private static final Pattern SEPARATORS = Pattern.compile("[ ,\t]+");
+    //Size of the results sent in a single chunk
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final byte CHUNK_END[] = HttpConstant.line_break.getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte LAST_CHUNK[] = ("0" + HttpConstant.line_break + HttpConstant.line_break).getBytes(StandardCharsets.ISO_8859_1);
+
+    //Threads of the batches, shared by every /simulate request. When their queue is full the worker plays the
+    //games itself, so concurrent batches slow down instead of piling up
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    private SimulationHandler() {
+    }
+
+    /**
+     * Answers a request of the simulation url
+     * @param request the GET or POST request
+     * @param connection the client connection
+     * @param keepAlive false if the connection is closed after the reply
+     */
+    public static void handle(HttpRequest request, ClientConnection connection, boolean keepAlive) {
+        if (request instanceof HttpGet) {
+            createGames((HttpGet) request, connection, keepAlive);
+        }
+        else {
+            playGuesses(((HttpPost) request).getBody(), connection, keepAlive);
+        }
+    }
+
+    /**
+     * Creates games and sends their IDs
+     */
+    private static void createGames(HttpGet request, ClientConnection connection, boolean keepAlive) {
+        GameVariant variant = GameVariant.fromName(request.parameters.getOrDefault("variant", GameVariant.CLASSIC.name));
+        int count;
+        try {
+            count = Integer.parseInt(request.parameters.getOrDefault("games", "1"));
+        } catch (NumberFormatException e) {
+            count = -1;
+        }
+        if (variant == null || count <= 0 || count > MAX_CREATED_GAMES) {
+            connection.send(StaticReply.get(HttpConstant.code_400, keepAlive));
+            return;
+        }
+
+        StringBuilder ids = new StringBuilder(count * (HttpConstant.COOKIE_ID_LENGTH + 1));
+        for (int i = 0; i < count; i++) {
+            ids.append(WebServer.sessions.create(variant).gameId).append('\n');
+        }
+
+        HashMap<String, String> extraHeaders = new HashMap<>();
+        if (!keepAlive) {
+            extraHeaders.put("Connection:", "close");
+        }
+        connection.send(HttpFactory.createHttpReplyFromTextFile(ids.toString(), extraHeaders).getHttpResponse());
+    }
+
+    /**
+     * Plays the guesses, the games spread between the threads of the simulations
+     */
+    private static void playGuesses(String body, ClientConnection connection, boolean keepAlive) {
+        //The guesses of each game, in order
+        LinkedHashMap<String, List<String[]>> guesses = new LinkedHashMap<>();
+        for (String line : body.split("\n")) {
+            String tokens[] = SEPARATORS.split(line.trim());
+            if (tokens[0].isEmpty())
+                continue;
+            guesses.computeIfAbsent(tokens[0], id -> new ArrayList<>()).add(tokens);
+        }
+
+        String status = HttpConstant.http_version + " " + HttpConstant.code_200 + " " + HttpConstant.status_200 + HttpConstant.line_break
+                + "Content-Type: text/plain" + HttpConstant.line_break
+                + "Transfer-Encoding: chunked" + HttpConstant.line_break
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + HttpConstant.line_break
+                + HttpConstant.line_break;
+        connection.send(status.getBytes(StandardCharsets.ISO_8859_1));
+        connection.flush();
+
+        ArrayList<List<String[]>> games = new ArrayList<>(guesses.values());
+        int groups = Math.min(games.size(), THREADS * 4);
+        ArrayList<Callable<Void>> tasks = new ArrayList<>(groups);
+        for (int g = 0; g < groups; g++) {
+            int group = g;
+            tasks.add(() -> {
+                StringBuilder results = new StringBuilder();
+                for (int i = group; i < games.size(); i += groups) {
+                    playGame(games.get(i), results);
+                    if (results.length() >= CHUNK_SIZE) {
+                        sendChunk(connection, results);
+                    }
+                }
+                sendChunk(connection, results);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> task : EXECUTOR.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error while playing a simulation : " + e.getCause());
+        }
+
+        connection.send(LAST_CHUNK);
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(THREADS * 16), runnable -> {
+                    Thread thread = new Thread(runnable, "simulation-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Plays the guesses of a game
+     * @param guesses the lines of the game, split in tokens
+     * @param results where the result lines are added
+     */
+    private static void playGame(List<String[]> guesses, StringBuilder results) {
+        String gameId = guesses.get(0)[0];
+        long start = System.nanoTime();
+        Mastermind game = WebServer.sessions.get(gameId);
+        Metrics.SESSION.recordSince(start);
+
+        for (String tokens[] : guesses) {
+            results.append(gameId).append(' ');
+            if (game == null) {
+                results.append("unknown\n");
+                continue;
+            }
+            String colors[] = new String[tokens.length - 1];
+            System.arraycopy(tokens, 1, colors, 0, colors.length);
+            int values = game.encodeColors(colors);
+            if (values == -1) {
+                results.append("error\n");
+                continue;
+            }
+
+            start = System.nanoTime();
+            long round = game.addNewRoundValues(values);
+            //Parked off-heap since it was read, the round is played on the game read again
+            while (round == Mastermind.PARKED && (game = WebServer.sessions.get(gameId)) != null) {
+                round = game.addNewRoundValues(values);
+            }
+            Metrics.SCORING.recordSince(start);
+            if (game == null) {
+                results.append("unknown\n");
+                continue;
+            }
+            if (round == Mastermind.GAME_OVER) {
+                results.append("over\n");
+                continue;
+            }
+            int state = game.getStateAfter(round);
+            results.append(Mastermind.getTries(round)).append(' ')
+                    .append(Mastermind.getGoodColorAndPosition(round)).append(' ')
+                    .append(Mastermind.getGoodColors(round)).append(' ')
+                    .append(STATES[state]).append('\n');
+        }
+
+        if (game != null && game.isGameOver)
+            WebServer.sessions.remove(gameId);
+    }
+
+    /**
+     * Sends the results as a chunk and empties them
+     */
+    private static void sendChunk(ClientConnection connection, StringBuilder results) {
+        if (results.length() == 0)
+            return;
+
+        byte data[] = results.toString().getBytes(StandardCharsets.UTF_8);
+        byte size[] = (Integer.toHexString(data.length) + HttpConstant.line_break).getBytes(StandardCharsets.ISO_8859_1);
+        connection.send(new ByteBuffer[] {ByteBuffer.wrap(size), ByteBuffer.wrap(data), ByteBuffer.wrap(CHUNK_END)});
+        connection.flush();
+        results.setLength(0);
+    }
+}
@@ -0,0 +1,250 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Files of the asset directory (the standalone client play.html, ...) served under /client/. Every file is
+ * copied at startup in a direct buffer, written to the socket without another copy, and the text files are
+ * also gzipped once. The files are copied rather than memory-mapped : a file truncated on disk would crash
+ * the server when its mapping is read.
+ * A file is loaded again when its size or its modification date changes, checked at most once per second.
+ * The replies carry an ETag and a Last-Modified date, a client sending them back gets a 304 Not Modified
+ * without the file.
+ */
+public class StaticAssets {
+    public static final String URL_PREFIX = "/client/";
+
+    //Browsers keep the files but check with the server that they did not change before using them
+    private static final String CACHE_CONTROL = "no-cache";
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final HashMap<String, String> CONTENT_TYPES = new HashMap<>();
+    static {
+        CONTENT_TYPES.put("html", "text/html");
+        CONTENT_TYPES.put("htm", "text/html");
+        CONTENT_TYPES.put("css", "text/css");
+        CONTENT_TYPES.put("js", "application/javascript");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("txt", "text/plain");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+    }
+
+    private final ConcurrentHashMap<String, Asset> assets = new ConcurrentHashMap<>();
+
+    /**
+     * Loads every file of a directory and of its sub directories, except the hidden ones
+     * @param directory the asset directory
+     * @throws IOException if a file can not be read
+     */
+    public StaticAssets(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            //Hidden files (.gitignore, ...) are not served
+            files = paths.filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().startsWith("."))
+                    .collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            String url = URL_PREFIX + directory.relativize(file).toString().replace('\\', '/');
+            assets.put(url, new Asset(file));
+        }
+    }
+
+    /**
+     * Getter for the number of files
+     * @return the number of files served
+     */
+    public int size() {
+        return assets.size();
+    }
+
+    /**
+     * Tells if an url is the url of a file
+     * @param url the request url
+     * @return true if the file exists
+     */
+    public boolean contains(String url) {
+        return assets.containsKey(url);
+    }
+
+    /**
+     * Gives the reply to a GET request of a file : the file, compressed if the client accepts it, or a 304
+     * if the client already has it.
+     * @param request the GET request, its url must be the url of a file
+     * @param keepAlive false if the connection is closed after the reply
+     * @return the buffers to send
+     */
+    public ByteBuffer[] getReply(HttpRequest request, boolean keepAlive) {
+        Asset asset = getCurrent(request.httpUrl);
+        int connection = keepAlive ? 1 : 0;
+
+        //The 304 gives the ETag of the encoding the client gets, so it matches the one it has
+        boolean isGzip = asset.gzipContent != null
+                && ContentEncoding.negotiate(request.httpHeaders.get(HttpParser.ACCEPT_ENCODING)).equals(ContentEncoding.GZIP);
+        if (asset.isNotModified(request.httpHeaders.get(HttpParser.IF_NONE_MATCH),
+                request.httpHeaders.get(HttpParser.IF_MODIFIED_SINCE))) {
+            return new ByteBuffer[] {ByteBuffer.wrap(isGzip ? asset.gzipNotModifiedHeaders[connection] : asset.notModifiedHeaders[connection])};
+        }
+
+        if (isGzip) {
+            return new ByteBuffer[] {ByteBuffer.wrap(asset.gzipHeaders[connection]), ByteBuffer.wrap(asset.gzipContent)};
+        }
+        return new ByteBuffer[] {ByteBuffer.wrap(asset.headers[connection]), asset.content.duplicate()};
+    }
+
+    /**
+     * Gives the loaded file of an url, loaded again first if the file changed on disk. The file keeps being
+     * served as loaded if it can not be read anymore.
+     * @param url the url of a file
+     * @return the file
+     */
+    private Asset getCurrent(String url) {
+        Asset asset = assets.get(url);
+        long now = System.nanoTime();
+        long nextCheck = asset.nextCheck.get();
+        //Only one worker checks the file
+        if (now - nextCheck < 0 || !asset.nextCheck.compareAndSet(nextCheck, now + CHECK_INTERVAL_NANOS))
+            return asset;
+
+        try {
+            if (Files.size(asset.file) != asset.size
+                    || Files.getLastModifiedTime(asset.file).toMillis() != asset.lastModifiedMillis) {
+                asset = new Asset(asset.file);
+                assets.put(url, asset);
+            }
+        } catch (IOException e) {
+            System.err.println("Asset " + asset.file + " can not be read : " + e.getMessage());
+        }
+        return asset;
+    }
+
+    /**
+     * A file loaded in memory, with its headers serialized for a connection closed (index 0) or kept alive
+     * (index 1) after the reply.
+     */
+    private static class Asset {
+        final Path file;
+        final ByteBuffer content;
+        final byte gzipContent[];
+        final String etag;
+        final String gzipEtag;
+        final long size;
+        final long lastModifiedMillis;
+        final long lastModifiedSeconds;
+        //System.nanoTime() after which the file is checked for changes
+        final AtomicLong nextCheck = new AtomicLong(System.nanoTime() + CHECK_INTERVAL_NANOS);
+
+        final byte headers[][] = new byte[2][];
+        final byte gzipHeaders[][] = new byte[2][];
+        final byte notModifiedHeaders[][] = new byte[2][];
+        final byte gzipNotModifiedHeaders[][] = new byte[2][];
+
+        Asset(Path file) throws IOException {
+            this.file = file;
+            //The date is read first, a change made while the file is read is seen by the next check
+            lastModifiedMillis = Files.getLastModifiedTime(file).toMillis();
+            lastModifiedSeconds = lastModifiedMillis / 1000;
+            byte bytes[] = Files.readAllBytes(file);
+            size = bytes.length;
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes).flip();
+            content = direct.asReadOnlyBuffer();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(bytes.length) + "\"";
+            gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+
+            String contentType = getContentType(file);
+            boolean isText = contentType.startsWith("text/") || contentType.endsWith("javascript")
+                    || contentType.endsWith("json") || contentType.endsWith("xml");
+            byte compressed[] = isText ? ContentEncoding.encode(bytes, ContentEncoding.GZIP) : null;
+            gzipContent = compressed != null && compressed.length < bytes.length ? compressed : null;
+
+            String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(lastModifiedSeconds), ZoneOffset.UTC));
+            for (int connection = 0; connection <= 1; connection++) {
+                String common = "Content-Type: " + contentType + HttpConstant.line_break
+                        + "Cache-Control: " + CACHE_CONTROL + HttpConstant.line_break
+                        + "Last-Modified: " + lastModified + HttpConstant.line_break
+                        + "Vary: " + HttpParser.ACCEPT_ENCODING + HttpConstant.line_break
+                        + "Connection: " + (connection == 1 ? "keep-alive" : "close") + HttpConstant.line_break;
+
+                headers[connection] = encode(HttpConstant.code_200, common + "ETag: " + etag + HttpConstant.line_break
+                        + "Content-Length: " + bytes.length + HttpConstant.line_break);
+                if (gzipContent != null) {
+                    gzipHeaders[connection] = encode(HttpConstant.code_200, common + "ETag: " + gzipEtag + HttpConstant.line_break
+                            + "Content-Encoding: " + ContentEncoding.GZIP + HttpConstant.line_break
+                            + "Content-Length: " + gzipContent.length + HttpConstant.line_break);
+                    gzipNotModifiedHeaders[connection] = encode(HttpConstant.code_304, common + "ETag: " + gzipEtag + HttpConstant.line_break);
+                }
+                notModifiedHeaders[connection] = encode(HttpConstant.code_304, common + "ETag: " + etag + HttpConstant.line_break);
+            }
+        }
+
+        /**
+         * Checks the conditional headers of a request. If-None-Match is used first, If-Modified-Since only
+         * when there is no If-None-Match.
+         * @param ifNoneMatch the ETags the client has, can be null
+         * @param ifModifiedSince the date of the file the client has, can be null
+         * @return true if the client has the current file
+         */
+        boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/"))
+                        tag = tag.substring(2);
+                    if (tag.equals("*") || tag.equals(etag) || tag.equals(gzipEtag))
+                        return true;
+                }
+                return false;
+            }
+
+            if (ifModifiedSince != null) {
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                    return lastModifiedSeconds <= since;
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        private static byte[] encode(String code, String headers) {
+            String reply = HttpConstant.http_version + " " + code + " " + HttpConstant.getStatusFromErrorCode(code)
+                    + HttpConstant.line_break + headers + HttpConstant.line_break;
+            return reply.getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        private static String getContentType(Path file) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String type = dot == -1 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+            return type == null ? "application/octet-stream" : type;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Replies that are always the same (errors, redirection, busy server), serialized once for a connection kept
+ * alive and once for a connection closed after the reply. Sending one only wraps the shared bytes, the
+ * bytes themselves are never modified. A single header (Location, Set-Cookie) can be inserted between the
+ * status line and the fixed headers.
+ */
+public final class StaticReply {
+    private static final String CODES[] = {HttpConstant.code_303, HttpConstant.code_400, HttpConstant.code_404,
+            HttpConstant.code_405, HttpConstant.code_409, HttpConstant.code_411, HttpConstant.code_413, HttpConstant.code_431, HttpConstant.code_501, HttpConstant.code_503,
+            HttpConstant.code_505};
+
+    private static final HashMap<String, StaticReply> KEEP_ALIVE_REPLIES = new HashMap<>();
+    private static final HashMap<String, StaticReply> CLOSE_REPLIES = new HashMap<>();
+    static {
+        for (String code : CODES) {
+            KEEP_ALIVE_REPLIES.put(code, new StaticReply(code, true));
+            CLOSE_REPLIES.put(code, new StaticReply(code, false));
+        }
+    }
+
+    private final byte statusLine[];
+    private final byte headersAndBody[];
+    private final byte reply[];
+
+    private StaticReply(String code, boolean keepAlive) {
+        byte body[] = HttpConstant.getBodyFromErrorCode(code).getBytes(StandardCharsets.UTF_8);
+
+        String status = HttpConstant.http_version + " " + code + " " + HttpConstant.getStatusFromErrorCode(code)
+                + HttpConstant.line_break;
+        String headers = "Content-Type: text/html" + HttpConstant.line_break
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + HttpConstant.line_break
+                + "Content-Length: " + body.length + HttpConstant.line_break
+                + HttpConstant.line_break;
+
+        statusLine = status.getBytes(StandardCharsets.ISO_8859_1);
+        headersAndBody = new byte[headers.length() + body.length];
+        System.arraycopy(headers.getBytes(StandardCharsets.ISO_8859_1), 0, headersAndBody, 0, headers.length());
+        System.arraycopy(body, 0, headersAndBody, headers.length(), body.length);
+
+        reply = new byte[statusLine.length + headersAndBody.length];
+        System.arraycopy(statusLine, 0, reply, 0, statusLine.length);
+        System.arraycopy(headersAndBody, 0, reply, statusLine.length, headersAndBody.length);
+    }
+
+    /**
+     * Gives the reply of a code
+     * @param code the HTTP code
+     * @param keepAlive false if the connection is closed after the reply
+     * @return the buffers to send
+     */
+    public static ByteBuffer[] get(String code, boolean keepAlive) {
+        return new ByteBuffer[] {ByteBuffer.wrap(find(code, keepAlive).reply)};
+    }
+
+    /**
+     * Gives the reply of a code with an extra header
+     * @param code the HTTP code
+     * @param keepAlive false if the connection is closed after the reply
+     * @param headerName the header name, without the colon
+     * @param headerValue the header value
+     * @return the buffers to send
+     */
+    public static ByteBuffer[] get(String code, boolean keepAlive, String headerName, String headerValue) {
+        StaticReply staticReply = find(code, keepAlive);
+        byte header[] = (headerName + ": " + headerValue + HttpConstant.line_break).getBytes(StandardCharsets.ISO_8859_1);
+        return new ByteBuffer[] {ByteBuffer.wrap(staticReply.statusLine), ByteBuffer.wrap(header),
+                ByteBuffer.wrap(staticReply.headersAndBody)};
+    }
+
+    private static StaticReply find(String code, boolean keepAlive) {
+        StaticReply staticReply = (keepAlive ? KEEP_ALIVE_REPLIES : CLOSE_REPLIES).get(code);
+        if (staticReply == null)
+            throw new IllegalArgumentException("no static reply for the code " + code);
+        return staticReply;
+    }
+}
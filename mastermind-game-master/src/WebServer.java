@@ -1,10 +1,9 @@
 
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.time.LocalTime;
-import java.time.temporal.ChronoUnit;
-import java.util.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
 import java.util.concurrent.*;
 
 /**
@@ -15,61 +14,114 @@ public class WebServer {
     public static final int NUMBER_THREAD = 20;
     public static final int MAX_SESSION_TIME_SECONDS = 600;
 
-    public static HashMap<String, Mastermind> currentGames;
+    public static SessionStore sessions;
+    public static StaticAssets assets;
+    public static GameLog gameLog;
+    public static AccessLog accessLog;
 
     /**
-     * Entry point of the application. Creation of the threadPool and the game verification mechanism.
-     * @param args The maximum number of threads wanted
+     * Entry point of the application. Creation of the threadPool, the selectors and the game verification mechanism.
+     * @param args The maximum number of threads wanted, then the options (--selectors=N, --port=N,
+     *             --keepalive-timeout=seconds, --keepalive-max=N, --mode=platform|virtual, --queue=N,
+     *             --max-sessions=N, --session-memory-mb=N, --pipeline=N, --assets=directory,
+     *             --wal=directory, --parked-sessions=N, --park-after=seconds,
+     *             --access-log=file|-, --access-log-sample=N)
      */
     public static void main(String[] args) {
 
-        currentGames = new HashMap<>();
-
         //Use of a thread pool to limit the max number of threads to avoid DDOS attacks
         try {
-            int maxThread = args.length > 0 ? Integer.parseInt(args[0]) : NUMBER_THREAD;
+            ServerConfig config = ServerConfig.fromArgs(args);
+            ExecutorService executor = createExecutor(config);
 
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThread, maxThread,
-                    0L, TimeUnit.MILLISECONDS,
-                    new LinkedBlockingQueue<Runnable>());
+            //Limit the number of games on the heap, the least recently used ones are parked off-heap or evicted
+            sessions = new SessionStore(SessionStore.maxSessionsFromConfig(config), MAX_SESSION_TIME_SECONDS,
+                    config.maxParkedSessions, config.parkAfterSeconds);
 
-            //Launch the game expiration verification every ten minutes, the first time after ten minutes
-            Timer timer = new Timer(true);
-            timer.scheduleAtFixedRate(new GameManagerThread(), MAX_SESSION_TIME_SECONDS * 1000, MAX_SESSION_TIME_SECONDS * 1000);
+            //Games kept on disk, restored on startup
+            if (config.logDirectory != null) {
+                gameLog = openGameLog(config.logDirectory);
+                Runtime.getRuntime().addShutdownHook(new Thread(gameLog::close, "game-log-close"));
+            }
 
-            waitIncomingClient(executor);
+            //One line per request, written by its own thread
+            if (config.accessLogFile != null) {
+                accessLog = openAccessLog(config);
+                Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close, "access-log-close"));
+            }
+
+            //Files served under /client/, loaded once
+            if (config.assetDirectory != null) {
+                assets = loadAssets(config.assetDirectory);
+            }
+
+            //Launch the game expiration mechanism
+            new GameManagerThread().start();
+
+            waitIncomingClient(config, executor);
 
         }
-        catch (NumberFormatException formatEx) {
-            System.err.println("Invalid program arguments : " + formatEx.getMessage());
+        catch (IllegalArgumentException argEx) {
+            System.err.println("Invalid program arguments : " + argEx.getMessage());
         }
         catch (Exception e) {
             System.err.println("Unknown error in server : " + e.getMessage());
         }
     }
 
+    /**
+     * Creates the executor running the workers. The platform mode uses a fixed number of threads with a bounded
+     * queue, the requests arriving when the queue is full are answered with a 503. The virtual mode runs every
+     * worker on its own virtual thread (needs Java 21 or later, otherwise falls back to the platform mode).
+     * @param config the server configuration
+     * @return the executor
+     */
+    private static ExecutorService createExecutor(ServerConfig config) {
+        if (config.executionMode.equals(ServerConfig.MODE_VIRTUAL)) {
+            try {
+                //Looked up by reflection so the server still compiles and runs on older Java versions
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                System.err.println("Virtual threads are not available on this Java version, using platform threads");
+            }
+        }
+
+        return new ThreadPoolExecutor(config.maxThread, config.maxThread,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(config.queueCapacity),
+                new BusyServerHandler());
+    }
+
     /**
      * Wait for clients.
-     * Creates a new thread for every new client request
+     * Only accepts the connections and hands them to the selector threads, which read the requests
+     * without blocking and give the complete ones to the thread pool.
      */
-    private static void waitIncomingClient(ThreadPoolExecutor executor) {
+    private static void waitIncomingClient(ServerConfig config, ExecutorService executor) {
         try
         {
-            ServerSocket ss = new ServerSocket(8010);
+            SelectorThread selectors[] = new SelectorThread[config.selectorThreads];
+            for (int i = 0; i < selectors.length; i++) {
+                selectors[i] = new SelectorThread(config, executor);
+                Thread thread = new Thread(selectors[i], "selector-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            ServerSocketChannel ss = ServerSocketChannel.open();
+            ss.bind(new InetSocketAddress(config.port));
             System.out.println("Server started . . . waiting on future client.");
+            if (gameLog != null) {
+                System.out.println("Game log " + gameLog.getRecoverySummary());
+            }
 
+            int nextSelector = 0;
             while (true) {
-                Socket clientSocket = ss.accept();
-                InputStream in = clientSocket.getInputStream();
-                System.out.println("Server accepted client connection from address : " + clientSocket.toString());
-
-                //Read the http request to get the game associated to the cookie (if there is one)
-                HttpRequest request = HttpFactory.createHttpRequestFromHttpHeader(getHeaderToArray(in));
-                Mastermind userGame = getUserGame(request);
+                SocketChannel clientChannel = ss.accept();
 
-                //Usage of a thread to manage the single request
-                Runnable worker = new WorkerThread(clientSocket, userGame, request);
-                executor.execute(worker);
+                //Spread the connections between the selectors
+                selectors[nextSelector].addChannel(clientChannel);
+                nextSelector = (nextSelector + 1) % selectors.length;
             }
 
         } catch (IOException ex ) {
@@ -77,136 +129,118 @@ public class WebServer {
         }
     }
 
+    /**
+     * Loads the files of the asset directory
+     * @param directory the asset directory
+     * @return the loaded files
+     * @throws IllegalArgumentException if the directory can not be read
+     */
+    private static StaticAssets loadAssets(String directory) {
+        try {
+            StaticAssets loaded = new StaticAssets(Paths.get(directory));
+            System.out.println("Serving " + loaded.size() + " files of " + directory + " under " + StaticAssets.URL_PREFIX);
+            return loaded;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can not read the asset directory " + directory + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the access log
+     * @param config the server configuration
+     * @return the access log
+     * @throws IllegalArgumentException if the file can not be opened
+     */
+    private static AccessLog openAccessLog(ServerConfig config) {
+        try {
+            return new AccessLog(config.accessLogFile, config.accessLogSampling);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can not open the access log " + config.accessLogFile + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restores the games of the log directory and logs the changes of the games from now on
+     * @param directory the log directory
+     * @return the game log
+     * @throws IllegalArgumentException if the directory can not be read or written
+     */
+    private static GameLog openGameLog(String directory) {
+        try {
+            return GameLog.open(Paths.get(directory), sessions);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can not use the game log directory " + directory + " : " + e.getMessage());
+        }
+    }
+
     /**
      * Get the game with the good id to recover the good game session
      * @param request httpRequest
-     * @return the associated game ID
+     * @param variant the game variant asked by the client, null to keep the current one
+     * @return the associated game, a new one if the cookie is not set, if its game does not exist anymore or
+     * if it has another variant
      */
-    private synchronized static Mastermind getUserGame(HttpRequest request){
+    static Mastermind getUserGame(HttpRequest request, GameVariant variant){
         String cookieId = "";
         //Get cookie id to find back the good game
-        String cookie[] = request.httpHeaders.getOrDefault("Cookie", "").split("=");
+        String cookie[] = request.httpHeaders.getOrDefault(HttpParser.COOKIE, "").split("=");
 
         //Verify if there is a corresponding Mastermind game cookie
         if (cookie.length == 2 && cookie[0].equals(HttpConstant.mastermind_cookie_name)) {
             cookieId = cookie[1];
         }
 
-        //If the cookie is not set or there are no corresponding existing game we create a new game
-        if (cookieId.equals("") || !currentGames.containsKey(cookieId)) {
-            Mastermind game = new Mastermind();
-            currentGames.put(game.gameId, game);
-            cookieId = game.gameId;
-        }
-
-        //If a game exists with that cookieId
-        else if(currentGames.containsKey(cookieId)){
-
-            long timeDiff = ChronoUnit.MINUTES.between(LocalTime.now(), currentGames.get(cookieId).creationTime);
-
-            //We verify it has not been there for more than its allowed time to live
-            if((-timeDiff) > MAX_SESSION_TIME_SECONDS){
-
-                //Delete expired game
-                currentGames.remove(cookieId);
-
-                //Create a new game
-                Mastermind game = new Mastermind();
-                currentGames.put(game.gameId, game);
-                cookieId = game.gameId;
-            }
-        }
-
-        //The game was precedently finished (set to null) by either a win or a lost, so we create a new one
-        else if (currentGames.get(cookieId) == null) {
-            Mastermind game = new Mastermind();
-            currentGames.put(game.gameId, game);
-            cookieId = game.gameId;
-        }
-
-        return currentGames.get(cookieId);
+        long start = System.nanoTime();
+        Mastermind game = sessions.getOrCreate(cookieId, variant);
+        Metrics.SESSION.recordSince(start);
+        return game;
     }
 
     /**
-     * Fetches the raw HTTP header and converts it to a single string.
-     * @param inputStream the input stream object in which it will read
-     * @return the http header as a single string
+     * Answers the requests that the thread pool can not queue anymore with a 503 instead of letting
+     * the queue grow without limit.
      */
-    private static String getHeaderToArray(InputStream inputStream) {
-
-        String headerTempData = "";
-
-        // chain the InputStream to a Reader
-        Reader reader = new InputStreamReader(inputStream);
-        try {
-            int c;
-            while ((c = reader.read()) != -1) {
-                headerTempData += (char) c;
+    private static class BusyServerHandler implements RejectedExecutionHandler {
 
-                if (headerTempData.contains("\r\n\r\n"))
-                    break;
+        @Override
+        public void rejectedExecution(Runnable worker, ThreadPoolExecutor executor) {
+            if (worker instanceof WorkerThread) {
+                ((WorkerThread) worker).rejectRequest();
             }
-
-            //In case of a POST request
-            if (headerTempData.contains("POST") && headerTempData.contains("Content-Length: ")) {
-                int lengthOfContent = headerTempData.indexOf("Content-Length: ") + "Content-Length: ".length();
-                int endOfContent = headerTempData.indexOf("\r\n", lengthOfContent);
-                int length = Integer.parseInt(headerTempData.substring(lengthOfContent, endOfContent));
-
-                //Read every character to get the POST request body
-                while (length > 0) {
-                    c = reader.read();
-                    headerTempData += (char) c;
-                    length--;
-                }
+            else if (worker instanceof WebSocketSession) {
+                ((WebSocketSession) worker).rejectMessages();
             }
-
-        } catch (IOException ex) {
-            System.err.println(ex.getMessage());
         }
-
-        return headerTempData;
     }
 
     /**
-     * This task will only loop on the games at a certain pace to verify their expiration time and delete
-     * them if they are expired.
+     * This thread deletes the expired games at a regular pace. Only the games that are due are looked at.
+     * It also parks the idle games off-heap and snapshots the games when the game log gets big.
      */
-    private static class GameManagerThread extends TimerTask{
+    private static class GameManagerThread extends Thread {
+        private static final long EXPIRY_CHECK_INTERVAL_MS = 1000;
 
-        /**
-         * Will verify the games when executed
-         */
-        @Override
-        public void run() {
-            verifyCurrentGames();
+        GameManagerThread() {
+            super("game-manager");
+            setDaemon(true);
         }
 
         /**
-         * Loop through the current games on the server and compare their creation time with the actual time.
+         * Will delete the expired games every interval
          */
-        private synchronized void verifyCurrentGames(){
-
-            //Fetch the hashmap's iterator to iterate through the games
-            Iterator iterator = currentGames.entrySet().iterator();
-
-            while(iterator.hasNext()){
-
-                Map.Entry<String, Mastermind> keyValuePair = (Map.Entry) iterator.next();
-                Mastermind game = keyValuePair.getValue();
-
-                long timeDiff = ChronoUnit.SECONDS.between(LocalTime.now(), game.creationTime);
-
-                //Delete the game if its expired
-                if((-timeDiff) > MAX_SESSION_TIME_SECONDS){
-
-                    currentGames.remove(keyValuePair.getKey());
-
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    Thread.sleep(EXPIRY_CHECK_INTERVAL_MS);
+                    sessions.removeExpired();
+                    sessions.parkIdle();
+                    if (gameLog != null)
+                        gameLog.snapshotIfNeeded(sessions);
                 }
+            } catch (InterruptedException ex) {
+                //Server shutdown
             }
         }
     }
-
-
-
 }
@@ -0,0 +1,421 @@
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WebSocket session of a player (RFC 6455), bound to its game when the HTTP connection is upgraded. Every text
+ * or binary message is a guess, the color names separated by spaces or commas, answered with the result of
+ * the round formatted by the adapter chosen at the handshake (the "tries_black_white" text for the page).
+ * The session is closed once the game is over.
+ * The frames are read and answered on the selector thread of the connection, the guesses are played by the
+ * workers like the HTTP requests : finding the game can wait for a lock, unpark it or log it. The guesses of
+ * a session are played one at a time, in order.
+ */
+public class WebSocketSession implements Runnable {
+    public static final String VERSION = "13";
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int KEY_LENGTH = 16;
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private static final int CLOSE_NORMAL = 1000;
+    private static final int CLOSE_PROTOCOL_ERROR = 1002;
+    private static final int CLOSE_INVALID_DATA = 1007;
+    private static final int CLOSE_TOO_BIG = 1009;
+    private static final int CLOSE_TRY_AGAIN_LATER = 1013;
+
+    private static final int MAX_CONTROL_LENGTH = 125;
+    //A guess of the biggest variant takes less than a hundred bytes
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+
+    private final ClientConnection connection;
+    private final IHttpAdapter adapter;
+    private final int replyOpcode;
+    private Mastermind game;
+
+    //Message received in several frames
+    private final byte message[] = new byte[MAX_MESSAGE_LENGTH];
+    private int messageLength = 0;
+    private boolean isFragmented = false;
+    private volatile boolean isClosing = false;
+
+    //Guesses waiting for a worker, and true while a worker plays them
+    private final ConcurrentLinkedQueue<byte[]> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isPlaying = new AtomicBoolean(false);
+
+    /**
+     * Binds a connection to a game
+     * @param connection the upgraded connection
+     * @param game the game of the player
+     * @param adapter the adapter formatting the results, binary results are sent in binary frames
+     */
+    public WebSocketSession(ClientConnection connection, Mastermind game, IHttpAdapter adapter) {
+        this.connection = connection;
+        this.game = game;
+        this.adapter = adapter;
+        this.replyOpcode = adapter.getRoundContentType().equals(BinaryAdapter.CONTENT_TYPE) ? OPCODE_BINARY : OPCODE_TEXT;
+    }
+
+    /**
+     * Tells if a request asks to switch to the WebSocket protocol
+     * @param request the HTTP request
+     * @return true for a GET request with an Upgrade: websocket header
+     */
+    public static boolean isUpgradeRequest(HttpRequest request) {
+        return request instanceof HttpGet && "websocket".equalsIgnoreCase(request.httpHeaders.get(HttpParser.UPGRADE));
+    }
+
+    /**
+     * Checks the headers of the opening handshake. A browser also sends its Origin, which must be the server
+     * itself, so another site can not play the game of a player with its cookie.
+     * @param request the upgrade request
+     * @return true if the connection can be upgraded
+     */
+    public static boolean isValidHandshake(HttpRequest request) {
+        String connectionHeader = request.httpHeaders.get(HttpParser.CONNECTION);
+        if (connectionHeader == null || !connectionHeader.toLowerCase().contains("upgrade"))
+            return false;
+        if (!VERSION.equals(request.httpHeaders.get(HttpParser.SEC_WEBSOCKET_VERSION)))
+            return false;
+
+        String key = request.httpHeaders.get(HttpParser.SEC_WEBSOCKET_KEY);
+        try {
+            if (key == null || Base64.getDecoder().decode(key).length != KEY_LENGTH)
+                return false;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        String origin = request.httpHeaders.get(HttpParser.ORIGIN);
+        if (origin == null)
+            return true;
+        int scheme = origin.indexOf("://");
+        return scheme != -1 && origin.substring(scheme + 3).equalsIgnoreCase(request.httpHeaders.get(HttpParser.HOST));
+    }
+
+    /**
+     * Creates the reply accepting the upgrade. A 1xx reply has no Content-Length, so it is not an HttpReply.
+     * @param key the Sec-WebSocket-Key header of the request
+     * @param cookie the game cookie
+     * @return the reply bytes
+     */
+    public static byte[] createHandshakeReply(String key, String cookie) {
+        String reply = HttpConstant.http_version + " " + HttpConstant.code_101 + " " + HttpConstant.status_101 + HttpConstant.line_break
+                + "Upgrade: websocket" + HttpConstant.line_break
+                + "Connection: Upgrade" + HttpConstant.line_break
+                + "Sec-WebSocket-Accept: " + computeAccept(key) + HttpConstant.line_break
+                + "Set-Cookie: " + cookie + HttpConstant.line_break
+                + HttpConstant.line_break;
+        return reply.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String computeAccept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte digest[] = sha1.digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Reads the complete frames received so far. Runs on the selector thread.
+     * @param data the bytes of the connection, a frame starting at index 0
+     * @param limit the number of bytes received
+     * @return the number of bytes used, the rest is the start of the next frame
+     */
+    int onBytes(byte data[], int limit) {
+        int offset = 0;
+        while (!isClosing) {
+            int frameLength = readFrame(data, offset, limit);
+            if (frameLength == 0)
+                break;
+            offset += frameLength;
+        }
+        //Nothing is read after a close frame
+        return isClosing ? limit : offset;
+    }
+
+    /**
+     * Reads a frame and unmasks its payload in place
+     * @return the length of the frame, 0 if it is not complete
+     */
+    private int readFrame(byte data[], int offset, int limit) {
+        if (limit - offset < 2)
+            return 0;
+
+        int first = data[offset] & 0xFF;
+        int second = data[offset + 1] & 0xFF;
+        boolean isFinal = (first & 0x80) != 0;
+        int opcode = first & 0x0F;
+        //No extension is negotiated and the client must mask its frames
+        if ((first & 0x70) != 0 || (second & 0x80) == 0) {
+            close(CLOSE_PROTOCOL_ERROR);
+            return 0;
+        }
+
+        long length = second & 0x7F;
+        int headerLength = 2;
+        if (length == 126) {
+            headerLength = 4;
+        }
+        else if (length == 127) {
+            headerLength = 10;
+        }
+        if (limit - offset < headerLength + 4)
+            return 0;
+        if (headerLength > 2) {
+            length = 0;
+            for (int i = offset + 2; i < offset + headerLength; i++) {
+                length = length << 8 | (data[i] & 0xFF);
+            }
+        }
+        if (length > MAX_MESSAGE_LENGTH || length < 0) {
+            close(CLOSE_TOO_BIG);
+            return 0;
+        }
+
+        int mask = offset + headerLength;
+        int payload = mask + 4;
+        int end = payload + (int) length;
+        if (end > limit)
+            return 0;
+
+        for (int i = 0; i < length; i++) {
+            data[payload + i] ^= data[mask + (i & 3)];
+        }
+        onFrame(isFinal, opcode, data, payload, (int) length);
+        return end - offset;
+    }
+
+    /**
+     * Answers the control frames and puts the data frames together
+     */
+    private void onFrame(boolean isFinal, int opcode, byte data[], int start, int length) {
+        if (opcode >= OPCODE_CLOSE && (!isFinal || length > MAX_CONTROL_LENGTH)) {
+            close(CLOSE_PROTOCOL_ERROR);
+            return;
+        }
+
+        switch (opcode) {
+            case OPCODE_CLOSE:
+                //Send back the status code of the client
+                byte code[] = new byte[Math.min(length, 2)];
+                System.arraycopy(data, start, code, 0, code.length);
+                sendClose(code);
+                break;
+
+            case OPCODE_PING:
+                byte ping[] = new byte[length];
+                System.arraycopy(data, start, ping, 0, length);
+                connection.send(createFrame(OPCODE_PONG, ping));
+                break;
+
+            case OPCODE_PONG:
+                break;
+
+            case OPCODE_TEXT:
+            case OPCODE_BINARY:
+                if (isFragmented) {
+                    close(CLOSE_PROTOCOL_ERROR);
+                    break;
+                }
+                if (isFinal) {
+                    queueMessage(data, start, length);
+                    break;
+                }
+                isFragmented = true;
+                System.arraycopy(data, start, message, 0, length);
+                messageLength = length;
+                break;
+
+            case OPCODE_CONTINUATION:
+                if (!isFragmented) {
+                    close(CLOSE_PROTOCOL_ERROR);
+                    break;
+                }
+                if (messageLength + length > MAX_MESSAGE_LENGTH) {
+                    close(CLOSE_TOO_BIG);
+                    break;
+                }
+                System.arraycopy(data, start, message, messageLength, length);
+                messageLength += length;
+                if (isFinal) {
+                    isFragmented = false;
+                    queueMessage(message, 0, messageLength);
+                }
+                break;
+
+            default:
+                close(CLOSE_PROTOCOL_ERROR);
+        }
+    }
+
+    /**
+     * Keeps a copy of a guess and hands the session to a worker if none is playing it. Runs on the selector
+     * thread.
+     */
+    private void queueMessage(byte data[], int start, int length) {
+        Metrics.WEBSOCKET_MESSAGES.increment();
+        messages.add(Arrays.copyOfRange(data, start, start + length));
+        if (isPlaying.compareAndSet(false, true))
+            connection.execute(this);
+    }
+
+    /**
+     * Plays the queued guesses in order. Runs on a worker.
+     */
+    @Override
+    public void run() {
+        do {
+            byte data[];
+            while ((data = messages.poll()) != null) {
+                if (!isClosing)
+                    onMessage(data, 0, data.length);
+            }
+            isPlaying.set(false);
+            //A guess queued after the last poll and before the flag was cleared
+        } while (!messages.isEmpty() && isPlaying.compareAndSet(false, true));
+    }
+
+    /**
+     * Closes the session without playing its guesses, used when the server is too busy.
+     */
+    public void rejectMessages() {
+        messages.clear();
+        close(CLOSE_TRY_AGAIN_LATER);
+        isPlaying.set(false);
+    }
+
+    /**
+     * Plays a guess and sends its result. The session ends with the game.
+     */
+    private void onMessage(byte data[], int start, int length) {
+        //The game may have been parked off-heap since the last message, or be expired
+        long time = System.nanoTime();
+        game = game == null ? null : WebServer.sessions.get(game.gameId);
+        Metrics.SESSION.recordSince(time);
+        if (game == null || game.isGameOver) {
+            close(CLOSE_NORMAL);
+            return;
+        }
+
+        String colors[] = readColors(data, start, start + length);
+        int values = colors == null ? -1 : game.encodeColors(colors);
+        if (values == -1) {
+            close(CLOSE_INVALID_DATA);
+            return;
+        }
+
+        time = System.nanoTime();
+        long round = game.addNewRoundValues(values);
+        //Parked off-heap since it was read, the round is played on the game read again
+        while (round == Mastermind.PARKED && (game = WebServer.sessions.get(game.gameId)) != null) {
+            round = game.addNewRoundValues(values);
+        }
+        Metrics.SCORING.recordSince(time);
+        //Another connection ended the game first, or it expired
+        if (round == Mastermind.GAME_OVER || game == null) {
+            game = null;
+            close(CLOSE_NORMAL);
+            return;
+        }
+        boolean isEndGame = game.isGameOver;
+        time = System.nanoTime();
+        byte result[] = adapter.generateBytesFromRound(game, round);
+        Metrics.RENDER.recordSince(time);
+        connection.send(createFrame(replyOpcode, result));
+
+        if (isEndGame) {
+            WebServer.sessions.remove(game.gameId);
+            game = null;
+            close(CLOSE_NORMAL);
+        }
+    }
+
+    /**
+     * Reads the color names of a guess, matched against the colors of the game so no string is created
+     * @return the color names, null if there are too many or if one is unknown
+     */
+    private String[] readColors(byte data[], int start, int end) {
+        GameVariant variant = game.variant;
+        String colors[] = new String[variant.pegs];
+        int count = 0;
+        int tokenStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && data[i] != ' ' && data[i] != ',')
+                continue;
+            if (i > tokenStart) {
+                String color = findColor(variant, data, tokenStart, i);
+                if (color == null || count == colors.length)
+                    return null;
+                colors[count++] = color;
+            }
+            tokenStart = i + 1;
+        }
+        return colors;
+    }
+
+    private static String findColor(GameVariant variant, byte data[], int start, int end) {
+        for (String color : variant.colorNames) {
+            if (color.length() != end - start)
+                continue;
+            int i = 0;
+            while (i < color.length() && color.charAt(i) == data[start + i])
+                i++;
+            if (i == color.length())
+                return color;
+        }
+        return null;
+    }
+
+    /**
+     * Starts the closing handshake, the connection is closed once the close frame is sent
+     * @param status the close status code
+     */
+    private void close(int status) {
+        sendClose(new byte[] {(byte) (status >>> 8), (byte) status});
+    }
+
+    private synchronized void sendClose(byte status[]) {
+        if (isClosing)
+            return;
+        isClosing = true;
+        connection.send(createFrame(OPCODE_CLOSE, status));
+        connection.close();
+    }
+
+    /**
+     * Creates a frame sent by the server : final and not masked
+     * @param opcode the frame type
+     * @param payload the frame payload
+     * @return the frame bytes
+     */
+    static byte[] createFrame(int opcode, byte payload[]) {
+        int headerLength = payload.length < 126 ? 2 : payload.length <= 0xFFFF ? 4 : 10;
+        byte frame[] = new byte[headerLength + payload.length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (headerLength == 2) {
+            frame[1] = (byte) payload.length;
+        }
+        else {
+            frame[1] = (byte) (headerLength == 4 ? 126 : 127);
+            for (int i = headerLength - 1, length = payload.length; i >= 2; i--, length >>>= 8) {
+                frame[i] = (byte) length;
+            }
+        }
+        System.arraycopy(payload, 0, frame, headerLength, payload.length);
+        return frame;
+    }
+}
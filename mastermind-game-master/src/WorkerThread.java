@@ -1,64 +1,83 @@
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.util.HashMap;
 
 /**
- * The main thread that will analyse and manage a HTTP request.
+ * The main thread that will analyse and manage the HTTP requests of a connection, one request or several
+ * pipelined requests received together.
  */
 public class WorkerThread implements Runnable {
     private final String SERVER_FILE_URL = "/play.html";
     private final String SERVER_ROOT = "/";
 
-    private Socket clientSocket;
-    private OutputStream out;
-    private InputStream in;
+    private ClientConnection connection;
     private Mastermind game;
+    private String gameId;
     private IHttpAdapter protocolAdapter;
+    private HttpRequest requests[];
     private HttpRequest request;
+    private boolean keepAlive;
+    private final long dispatchTime = System.nanoTime();
 
-    public WorkerThread(Socket s, Mastermind game, HttpRequest request){
-        this.clientSocket = s;
-        this.game = game;
-        this.request = request;
-        this.protocolAdapter = new HtmlAdapter();
+    public WorkerThread(ClientConnection connection, HttpRequest requests[]){
+        this.connection = connection;
+        this.requests = requests;
     }
 
     /**
-     * When executed, will set the socket connection, analyze the request and close the connection.
+     * When executed, will analyze the requests in order and then either keep the
+     * connection for the next requests or close it.
      */
     @Override
     public void run() {
+        Metrics.QUEUE.recordSince(dispatchTime);
+        boolean keepAlive = false;
         try
         {
-            setStream();
-            analyzeIncomingRequest();
-            closeConnection();
+            for (int i = 0; i < requests.length; i++) {
+                request = requests[i];
+                //A batch stops at the request ending the connection, so only the last one can close it
+                keepAlive = i < requests.length - 1 || isKeepAlive();
+
+                AccessLog accessLog = WebServer.accessLog;
+                long queuedBytes = accessLog == null ? 0 : connection.getQueuedBytes();
+                gameId = null;
+                analyzeIncomingRequest(keepAlive);
+                if (accessLog != null) {
+                    accessLog.log(requests[i], connection.getLastStatus(), connection.getQueuedBytes() - queuedBytes, gameId);
+                }
+                //An upgraded connection stays open whatever the keep-alive limits
+                keepAlive = this.keepAlive;
+            }
 
-        } catch (IOException ex ) {
-            System.err.println("Can't get input and output stream from client :" + ex) ;
         } catch (Exception any) {
+            keepAlive = false;
             System.err.println("worker died " + any) ;
+        } finally {
+            connection.endRequest(keepAlive);
         }
     }
 
     /**
-     * Set stream of the client
-     * @throws IOException connection error
+     * Answers the requests with a 503 without handling them, used when the server is too busy.
      */
-    private void setStream() throws IOException {
-        out = clientSocket.getOutputStream();
-        in = clientSocket.getInputStream();
-        System.out.println("Server accepted client connection from address : " + clientSocket.toString());
+    public void rejectRequest() {
+        Metrics.REJECTED_REQUESTS.increment();
+        long queuedBytes = connection.getQueuedBytes();
+        connection.send(StaticReply.get(HttpConstant.code_503, false));
+        if (WebServer.accessLog != null) {
+            WebServer.accessLog.log(requests[0], connection.getLastStatus(), connection.getQueuedBytes() - queuedBytes, null);
+        }
+        connection.endRequest(false);
     }
 
     /**
-     * Close connection with the client
-     * @throws IOException connection error
+     * Tells if the connection can be reused after this request. It is closed after a bad request, when the
+     * client asks for it or when the connection served its maximum number of requests.
+     * @return true to keep the connection open
      */
-    private void closeConnection() throws IOException {
-        clientSocket.close();
+    private boolean isKeepAlive() {
+        return !(request instanceof HttpReply)
+                && !"close".equalsIgnoreCase(request.httpHeaders.get(HttpParser.CONNECTION))
+                && connection.acceptsMoreRequests();
     }
 
     @Override
@@ -68,29 +87,64 @@ public class WorkerThread implements Runnable {
 
     /**
      * The main method that will dispatch to the appropriated action in answer to the request.
+     * @param keepAlive false if the connection is closed after the reply
      */
-    private void analyzeIncomingRequest() {
-
-        HashMap<String, String> extraHeaders = new HashMap<>();
-        extraHeaders.put("Set-Cookie: ", HttpConstant.mastermind_cookie_name + "=" + game.gameId);
+    private void analyzeIncomingRequest(boolean keepAlive) {
+        this.keepAlive = keepAlive;
 
         // Mean there was a bad format http request
         if (request instanceof HttpReply) {
-            sendReplyToClient((HttpReply) request);
+            connection.send(StaticReply.get(((HttpReply) request).code, false));
         }
         // Redirection to the server root file
         else if (request.httpUrl.equals(SERVER_ROOT)) {
-
-            extraHeaders.put("Location:", "http://" + request.httpHeaders.get("Host") + SERVER_FILE_URL);
-            sendReplyToClient(HttpFactory.createHttpReplyFromCode(HttpConstant.code_303, extraHeaders));
+            String location = "http://" + request.httpHeaders.get(HttpParser.HOST) + SERVER_FILE_URL;
+            connection.send(StaticReply.get(HttpConstant.code_303, keepAlive, "Location", location));
+        }
+        // A file of the asset directory
+        else if (request instanceof HttpGet && WebServer.assets != null && WebServer.assets.contains(request.httpUrl)) {
+            connection.send(WebServer.assets.getReply(request, keepAlive));
+        }
+        // Counters and latencies of the server
+        else if (request instanceof HttpGet && request.httpUrl.equals(Metrics.URL)) {
+            sendReplyToClient(Metrics.createReply(keepAlive));
+        }
+        // Batch of guesses of the solvers
+        else if (request.httpUrl.equals(SimulationHandler.URL)) {
+            SimulationHandler.handle(request, connection, keepAlive);
         }
         // If file is not found
         else if (!request.httpUrl.equals(SERVER_FILE_URL)) {
-            sendReplyToClient(HttpFactory.createHttpReplyFromCode(HttpConstant.code_404, extraHeaders));
+            connection.send(StaticReply.get(HttpConstant.code_404, keepAlive));
+        }
+        // The guess of the game page is a form, the parser left its body as received
+        else if (request instanceof HttpPost && !((HttpPost) request).readFormParameters()) {
+            connection.send(StaticReply.get(HttpConstant.code_400, keepAlive));
         }
         // If everything is good
         else {
+           HashMap<String, String> extraHeaders = new HashMap<>();
+           if (!keepAlive) {
+               extraHeaders.put("Connection:", "close");
+           }
+
+           //Only the game page needs a game, so the other requests (bots, redirections) do not create one
+           //A GET request can ask for a game variant, the current game is replaced if it has another variant
+           GameVariant variant = null;
            if (request instanceof HttpGet) {
+               variant = GameVariant.fromName(((HttpGet) request).parameters.get("variant"));
+           }
+           game = WebServer.getUserGame(request, variant);
+           gameId = game.gameId;
+
+           //Browsers get the html page, the other clients can ask for JSON or binary replies
+           protocolAdapter = HttpFactory.createAdapterFromAccept(request.httpHeaders.get(HttpParser.ACCEPT));
+           extraHeaders.put("Set-Cookie: ", HttpConstant.mastermind_cookie_name + "=" + game.gameId);
+
+           if (WebSocketSession.isUpgradeRequest(request)) {
+               upgradeToWebSocket();
+           }
+           else if (request instanceof HttpGet) {
                actOnGetRequest((HttpGet) request, extraHeaders);
            }
            else if (request instanceof HttpPost) {
@@ -108,13 +162,29 @@ public class WorkerThread implements Runnable {
      */
     private void sendReplyToClient(HttpReply reply) {
         try {
-            out.write(reply.getHttpResponse().getBytes("UTF-8"));
+            connection.send(reply.getHttpResponse());
         }
         catch (Exception e) {
             System.err.println("Error while sending response to client : " + e.getMessage());
         }
     }
 
+    /**
+     * Switches the connection to the WebSocket protocol, bound to the game of the client. The next guesses
+     * come as frames on this connection, without a new request.
+     */
+    private void upgradeToWebSocket() {
+        if (!WebSocketSession.isValidHandshake(request)) {
+            connection.send(StaticReply.get(HttpConstant.code_400, keepAlive, "Sec-WebSocket-Version", WebSocketSession.VERSION));
+            return;
+        }
+
+        connection.upgrade(new WebSocketSession(connection, game, protocolAdapter));
+        String cookie = HttpConstant.mastermind_cookie_name + "=" + game.gameId;
+        connection.send(WebSocketSession.createHandshakeReply(request.httpHeaders.get(HttpParser.SEC_WEBSOCKET_KEY), cookie));
+        keepAlive = true;
+    }
+
     /**
      * Responds accordingly to the client's get request by updating the game and sending back a reply
      * @param request HTTP GET request
@@ -123,28 +193,40 @@ public class WorkerThread implements Runnable {
     private void actOnGetRequest(HttpGet request, HashMap<String, String> extraHeaders) {
 
         // Mean new game
-        if (request.parameters.isEmpty()) {
-            String html = protocolAdapter.generateStringFromMastermind(game);
-            sendReplyToClient(HttpFactory.createHttpReplyFromHtmlFile(html, extraHeaders));
+        if (!request.parameters.containsKey("color1")) {
+            sendGamePage(extraHeaders);
         }
         
         // Mean ajax with params
         else {
-            String colors = game.gameColors.get(request.parameters.get("color1")) +
-                            game.gameColors.get(request.parameters.get("color2")) +
-                            game.gameColors.get(request.parameters.get("color3")) +
-                            game.gameColors.get(request.parameters.get("color4"));
+            int colors = readColors(request.parameters);
+            if (colors == -1) {
+                sendBadColors();
+                return;
+            }
 
-            String goodColors = game.addNewRoundValues(colors);
+            long start = System.nanoTime();
+            long round = playRound(colors);
+            Metrics.SCORING.recordSince(start);
+            //Another request ended the game first
+            if (round == Mastermind.GAME_OVER) {
+                sendGameOver();
+                return;
+            }
+            start = System.nanoTime();
+            byte[] result = protocolAdapter.generateBytesFromRound(game, round);
+            Metrics.RENDER.recordSince(start);
 
             //If the game is over, send an expired cookie to terminate the session
-            boolean isEndGame = checkForVictoryOrDefeat(goodColors);
+            boolean isEndGame = checkForVictoryOrDefeat();
             if (isEndGame) {
                 extraHeaders.put("Set-Cookie: ", HttpConstant.mastermind_cookie_name + "=" + game.gameId + "; expires=Thu, 01 Jan 1970 00:00:00 GMT");
+                WebServer.sessions.remove(game.gameId);
                 this.game = null;
             }
 
-            sendReplyToClient(HttpFactory.createHttpReplyFromTextFile(goodColors, extraHeaders));
+            extraHeaders.put("Vary:", HttpParser.ACCEPT);
+            sendReplyToClient(HttpFactory.createHttpReplyFromBytes(result, protocolAdapter.getRoundContentType(), extraHeaders));
         }
     }
 
@@ -154,43 +236,112 @@ public class WorkerThread implements Runnable {
      * @param extraHeaders extra headers for the reply
      */
     private void actOnPostRequest(HttpPost request, HashMap<String, String> extraHeaders) {
-        String colors = game.gameColors.get(request.parameters.get("color1")) +
-                game.gameColors.get(request.parameters.get("color2")) +
-                game.gameColors.get(request.parameters.get("color3")) +
-                game.gameColors.get(request.parameters.get("color4"));
+        int colors = readColors(request.parameters);
+        if (colors == -1) {
+            sendBadColors();
+            return;
+        }
 
-        String goodColors = game.addNewRoundValues(colors);
+        long start = System.nanoTime();
+        long round = playRound(colors);
+        Metrics.SCORING.recordSince(start);
 
         //If the game is over, send an expired cookie to terminate the session
-        boolean isEndGame = checkForVictoryOrDefeat(goodColors);
+        boolean isEndGame = round == Mastermind.GAME_OVER || checkForVictoryOrDefeat();
         if (isEndGame) {
             extraHeaders.put("Set-Cookie: ", HttpConstant.mastermind_cookie_name + "=" + game.gameId + "; expires=Thu, 01 Jan 1970 00:00:00 GMT");
-            String html = protocolAdapter.generateStringFromMastermind(game);
-            sendReplyToClient(HttpFactory.createHttpReplyFromHtmlFile(html, extraHeaders));
+            sendGamePage(extraHeaders);
+            WebServer.sessions.remove(game.gameId);
             this.game = null;
         }
         else {
-            String html = protocolAdapter.generateStringFromMastermind(game);
-            sendReplyToClient(HttpFactory.createHttpReplyFromHtmlFile(html, extraHeaders));
+            sendGamePage(extraHeaders);
+        }
+    }
+
+    /**
+     * Sends the page of the game in the format asked by the client, compressed if the client accepts it.
+     * The JSON and binary games are only compressed from ContentEncoding.MIN_COMPRESSED_LENGTH bytes.
+     * @param extraHeaders extra headers for the reply
+     */
+    private void sendGamePage(HashMap<String, String> extraHeaders) {
+        String contentEncoding = ContentEncoding.negotiate(request.httpHeaders.get(HttpParser.ACCEPT_ENCODING));
+        long start = System.nanoTime();
+        byte[] html;
+        if (protocolAdapter instanceof HtmlAdapter) {
+            //The page is compressed from segments compressed in advance
+            html = protocolAdapter.generateBytesFromMastermind(game, contentEncoding);
+        }
+        else {
+            html = protocolAdapter.generateBytesFromMastermind(game);
+            if (html.length < ContentEncoding.MIN_COMPRESSED_LENGTH)
+                contentEncoding = ContentEncoding.IDENTITY;
+            html = ContentEncoding.encode(html, contentEncoding);
+        }
+        Metrics.RENDER.recordSince(start);
+        if (!contentEncoding.equals(ContentEncoding.IDENTITY)) {
+            extraHeaders.put("Content-Encoding:", contentEncoding);
+        }
+        extraHeaders.put("Vary:", HttpParser.ACCEPT + ", " + HttpParser.ACCEPT_ENCODING);
+        sendReplyToClient(HttpFactory.createHttpReplyFromBytes(html, protocolAdapter.getPageContentType(), extraHeaders));
+    }
+
+    /**
+     * Answers a combination with missing or unknown colors with a 400, keeping the game cookie
+     */
+    private void sendBadColors() {
+        String cookie = HttpConstant.mastermind_cookie_name + "=" + game.gameId;
+        connection.send(StaticReply.get(HttpConstant.code_400, keepAlive, "Set-Cookie", cookie));
+    }
+
+    /**
+     * Answers a guess on a game already won or lost with a 409, expiring the game cookie
+     */
+    private void sendGameOver() {
+        String cookie = HttpConstant.mastermind_cookie_name + "=" + game.gameId + "; expires=Thu, 01 Jan 1970 00:00:00 GMT";
+        connection.send(StaticReply.get(HttpConstant.code_409, keepAlive, "Set-Cookie", cookie));
+        WebServer.sessions.remove(game.gameId);
+        this.game = null;
+    }
+
+    /**
+     * Plays a round on the game of the request. The game is read again from the store if it was parked
+     * off-heap since the request found it.
+     * @param colors the packed combination
+     * @return the packed round, GAME_OVER if the game is over or not in the store anymore
+     */
+    private long playRound(int colors) {
+        long round = game.addNewRoundValues(colors);
+        while (round == Mastermind.PARKED) {
+            Mastermind current = WebServer.sessions.get(gameId);
+            if (current == null)
+                return Mastermind.GAME_OVER;
+            game = current;
+            round = game.addNewRoundValues(colors);
+        }
+        return round;
+    }
+
+    /**
+     * Reads the colors chosen by the client from the request parameters (color1, color2, ... one per peg).
+     * @param parameters the GET or POST parameters
+     * @return the packed combination, or -1 if a color is missing or unknown
+     */
+    private int readColors(HashMap<String, String> parameters) {
+        String colorParameters[] = game.variant.colorParameters;
+        String colors[] = new String[colorParameters.length];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = parameters.get(colorParameters[i]);
         }
+        return game.encodeColors(colors);
     }
 
     /**
      * Verifies if the game is finished or not.
-     * @param goodColors the secret color combination
      * @return true if the game is ended
      */
-    private boolean checkForVictoryOrDefeat(String goodColors) {
-        boolean isEndGame = false;
-        String results[] = goodColors.split("_");
-        if (results[0].equals("12")) {
-            // Mean defeat
-            isEndGame = true;
-        } else if (results[1].equals("4")) {
-            // Mean victory
-            isEndGame = true;
-        }
-        this.game.isGameOver = isEndGame;
-        return isEndGame;
+    private boolean checkForVictoryOrDefeat() {
+        // Mean victory or defeat, set by the game with its last round
+        return game.isGameOver;
     }
 }
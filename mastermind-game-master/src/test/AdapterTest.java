@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the JSON, binary and HTML replies of a game and of a round, also while the game is played by
+ * another thread.
+ */
+public class AdapterTest {
+    private static final String GAME_ID = "00000000000000000000000000";
+
+    @Test
+    public void jsonGameHasItsVariantAndItsRounds() {
+        Mastermind game = newClassicGame();
+        game.addNewRoundValues(encode(game, "red", "green", "yellow", "white"));
+
+        String json = new JsonAdapter().generateStringFromMastermind(game);
+        assertEquals("{\"variant\":\"classic\",\"pegs\":4,\"colors\":[\"red\",\"blue\",\"yellow\",\"green\",\"white\",\"black\"]"
+                + ",\"maxTries\":12,\"tries\":1,\"state\":\"playing\""
+                + ",\"rounds\":[{\"guess\":[\"red\",\"green\",\"yellow\",\"white\"],\"black\":2,\"white\":1}]}", json);
+    }
+
+    @Test
+    public void binaryGameHasItsVariantAndItsRounds() {
+        Mastermind game = newClassicGame();
+        game.addNewRoundValues(encode(game, "red", "green", "yellow", "white"));
+        game.addNewRoundValues(encode(game, "red", "blue", "yellow", "green"));
+
+        byte data[] = new BinaryAdapter().generateBytesFromMastermind(game);
+        assertArrayEquals(new byte[] {BinaryAdapter.VERSION, BinaryAdapter.TYPE_GAME, 4, 6, 12, 2, Mastermind.STATE_WON, 0,
+                0, 3, 2, 4, 2, 1,
+                0, 1, 2, 3, 4, 0}, data);
+    }
+
+    @Test
+    public void roundRepliesGiveTheTriesOfTheirRound() {
+        Mastermind game = newClassicGame();
+        long first = game.addNewRoundValues(encode(game, "red", "green", "yellow", "white"));
+        long second = game.addNewRoundValues(encode(game, "red", "blue", "yellow", "green"));
+
+        //The first round is rendered after the second one was played
+        assertEquals("{\"tries\":1,\"black\":2,\"white\":1,\"state\":\"playing\"}",
+                new String(new JsonAdapter().generateBytesFromRound(game, first), StandardCharsets.US_ASCII));
+        assertArrayEquals(new byte[] {BinaryAdapter.VERSION, BinaryAdapter.TYPE_ROUND, 1, 2, 1, Mastermind.STATE_PLAYING},
+                new BinaryAdapter().generateBytesFromRound(game, first));
+        assertEquals("1_2_1", new String(new HtmlAdapter().generateBytesFromRound(game, first), StandardCharsets.US_ASCII));
+
+        assertEquals("{\"tries\":2,\"black\":4,\"white\":0,\"state\":\"won\"}",
+                new String(new JsonAdapter().generateBytesFromRound(game, second), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void lastTryOfALostGameIsLost() {
+        Mastermind game = new Mastermind(GameVariant.CLASSIC, GAME_ID, 0);
+        int guess = encode(game, "blue", "blue", "blue", "blue");
+        long round = 0;
+        for (int i = 0; i < GameVariant.CLASSIC.maxTries; i++) {
+            round = game.addNewRoundValues(guess);
+        }
+        assertArrayEquals(new byte[] {BinaryAdapter.VERSION, BinaryAdapter.TYPE_ROUND, 12, 0, 0, Mastermind.STATE_LOST},
+                new BinaryAdapter().generateBytesFromRound(game, round));
+    }
+
+    @Test
+    public void gameRenderedWhileItIsPlayedIsConsistent() throws InterruptedException {
+        IHttpAdapter adapters[] = {new JsonAdapter(), new BinaryAdapter(), new HtmlAdapter()};
+        for (int attempt = 0; attempt < 200; attempt++) {
+            Mastermind game = new Mastermind(GameVariant.GRAND, GAME_ID, 0);
+            int guess = encode(game, "blue", "blue", "blue", "blue", "blue", "blue", "blue", "blue");
+            Thread player = new Thread(() -> {
+                while (game.addNewRoundValues(guess) != Mastermind.GAME_OVER) {
+                }
+            });
+            player.start();
+            while (player.isAlive()) {
+                byte data[] = adapters[1].generateBytesFromMastermind(game);
+                assertEquals(8 + data[5] * (GameVariant.GRAND.pegs + 2), data.length);
+                adapters[0].generateBytesFromMastermind(game);
+                adapters[2].generateBytesFromMastermind(game);
+            }
+            player.join();
+        }
+    }
+
+    private static Mastermind newClassicGame() {
+        Mastermind game = new Mastermind(GameVariant.CLASSIC, GAME_ID, 0);
+        return new Mastermind(GameVariant.CLASSIC, GAME_ID, encode(game, "red", "blue", "yellow", "green"));
+    }
+
+    private static int encode(Mastermind game, String... colors) {
+        return game.encodeColors(colors);
+    }
+}
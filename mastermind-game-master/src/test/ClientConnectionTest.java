@@ -0,0 +1,104 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the pipelined requests : the requests received in one read are handled as one batch, which stops at
+ * its maximum size, at a request closing or upgrading the connection, and waits for the end of a split request.
+ */
+public class ClientConnectionTest {
+    private static final String GET = "GET /play.html HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private SocketChannel accepted;
+    private ServerConfig config;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        accepted = server.accept();
+        config = new ServerConfig();
+    }
+
+    @AfterEach
+    public void teardown() throws IOException {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    @Test
+    public void pipelinedRequestsAreOneBatch() throws IOException {
+        ClientConnection connection = new ClientConnection(accepted, null, config);
+        send(GET + GET.replace("/play.html", "/") + GET);
+
+        HttpRequest requests[] = connection.onReadable();
+        assertEquals(3, requests.length);
+        assertEquals("/play.html", requests[0].getHttpUrl());
+        assertEquals("/", requests[1].getHttpUrl());
+        assertEquals("/play.html", requests[2].getHttpUrl());
+    }
+
+    @Test
+    public void batchStopsAtItsMaximumSize() throws IOException {
+        config.maxPipelinedRequests = 2;
+        ClientConnection connection = new ClientConnection(accepted, null, config);
+        send(GET + GET + GET);
+
+        assertEquals(2, connection.onReadable().length);
+        //The last request stays in the buffer until the batch is answered
+        assertEquals(1, connection.extractRequests().length);
+        assertNull(connection.extractRequests());
+    }
+
+    @Test
+    public void batchStopsAtClosingAndUpgradingRequests() throws IOException {
+        ClientConnection connection = new ClientConnection(accepted, null, config);
+        String close = GET.replace("\r\n\r\n", "\r\nConnection: close\r\n\r\n");
+        String upgrade = GET.replace("\r\n\r\n", "\r\nConnection: Upgrade\r\nUpgrade: websocket\r\n\r\n");
+        send(GET + close + upgrade + GET);
+
+        HttpRequest requests[] = connection.onReadable();
+        assertEquals(2, requests.length);
+        assertEquals("close", requests[1].httpHeaders.get(HttpParser.CONNECTION));
+
+        requests = connection.extractRequests();
+        assertEquals(1, requests.length);
+        assertTrue(WebSocketSession.isUpgradeRequest(requests[0]));
+        assertEquals(1, connection.extractRequests().length);
+    }
+
+    @Test
+    public void splitRequestWaitsForItsEnd() throws IOException {
+        ClientConnection connection = new ClientConnection(accepted, null, config);
+        send(GET + GET.substring(0, 20));
+
+        assertEquals(1, connection.onReadable().length);
+        assertNull(connection.extractRequests());
+
+        send(GET.substring(20));
+        HttpRequest requests[] = connection.onReadable();
+        assertEquals(1, requests.length);
+        assertEquals("localhost", requests[0].httpHeaders.get(HttpParser.HOST));
+    }
+
+    private void send(String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+}
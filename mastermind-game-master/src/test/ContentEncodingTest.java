@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the compression of the replies : the choice of the encoding, whole bodies, and the game page
+ * compressed from its pre-compressed parts.
+ */
+public class ContentEncodingTest {
+    @Test
+    public void encodingIsNegotiated() {
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate(null));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("br"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate, br"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, GZIP"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, deflate"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("gzip; q=0.0"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip;q=0.5"));
+    }
+
+    @Test
+    public void bodyIsEncodedAndDecodedBack() throws IOException {
+        byte body[] = "{\"tries\":1,\"black\":2,\"white\":1,\"state\":\"playing\"}".repeat(20).getBytes();
+
+        assertSame(body, ContentEncoding.encode(body, ContentEncoding.IDENTITY));
+        byte gzip[] = ContentEncoding.encode(body, ContentEncoding.GZIP);
+        assertTrue(gzip.length < body.length);
+        assertArrayEquals(body, gunzip(gzip));
+        assertArrayEquals(body, inflate(ContentEncoding.encode(body, ContentEncoding.DEFLATE)));
+    }
+
+    @Test
+    public void gamePageIsCompressedFromItsParts() throws IOException {
+        HtmlAdapter adapter = new HtmlAdapter();
+        for (GameVariant variant : new GameVariant[] {GameVariant.CLASSIC, GameVariant.GRAND}) {
+            //A game in progress, then won
+            int secret = 0;
+            Mastermind game = new Mastermind(variant, "00000000000000000000000000", secret);
+            int guess = 0;
+            for (int peg = 0; peg < variant.pegs; peg++) {
+                guess |= 1 << (peg * 4);
+            }
+            game.addNewRoundValues(guess);
+            assertPageDecodes(adapter, game);
+            game.addNewRoundValues(secret);
+            assertPageDecodes(adapter, game);
+        }
+    }
+
+    private static void assertPageDecodes(HtmlAdapter adapter, Mastermind game) throws IOException {
+        byte page[] = adapter.generateBytesFromMastermind(game);
+        assertArrayEquals(page, adapter.generateBytesFromMastermind(game, ContentEncoding.IDENTITY));
+        assertArrayEquals(page, gunzip(adapter.generateBytesFromMastermind(game, ContentEncoding.GZIP)));
+        assertArrayEquals(page, inflate(adapter.generateBytesFromMastermind(game, ContentEncoding.DEFLATE)));
+    }
+
+    private static byte[] gunzip(byte data[]) throws IOException {
+        return readAll(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static byte[] inflate(byte data[]) throws IOException {
+        return readAll(new InflaterInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        try (input) {
+            return input.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the recovery of the games from the game log : the snapshot and the records written after it,
+ * and the records already in the snapshot replayed again.
+ */
+public class GameLogTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void gamesAreRestoredFromTheSnapshotAndTheLog() throws IOException {
+        SessionStore store = newStore();
+        GameLog log = GameLog.open(directory, store);
+        Mastermind kept = store.create(GameVariant.CLASSIC);
+        Mastermind removed = store.create(GameVariant.GRAND);
+        play(kept, 2);
+        log.snapshot(store);
+        play(kept, 1);
+        store.remove(removed.gameId);
+        Mastermind created = store.create(GameVariant.SUPER);
+        play(created, 1);
+        log.close();
+
+        SessionStore restored = newStore();
+        GameLog reopened = GameLog.open(directory, restored);
+        try {
+            assertEquals(2, restored.size());
+            assertSameGame(kept, restored.get(kept.gameId));
+            assertSameGame(created, restored.get(created.gameId));
+            assertNull(restored.get(removed.gameId));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void replayingRecordsAlreadyInTheSnapshotChangesNothing() throws IOException {
+        SessionStore store = newStore();
+        GameLog log = GameLog.open(directory, store);
+        Mastermind game = store.create(GameVariant.CLASSIC);
+        play(game, 2);
+        log.flush();
+        byte oldRecords[] = Files.readAllBytes(segment());
+
+        log.snapshot(store);
+        play(game, 1);
+        log.close();
+
+        //The records of the creation and of the first two rounds, also in the snapshot, are replayed first
+        Path segment = segment();
+        byte newRecords[] = Files.readAllBytes(segment);
+        byte records[] = new byte[oldRecords.length + newRecords.length];
+        System.arraycopy(oldRecords, 0, records, 0, oldRecords.length);
+        System.arraycopy(newRecords, 0, records, oldRecords.length, newRecords.length);
+        Files.write(segment, records);
+
+        SessionStore restored = newStore();
+        GameLog reopened = GameLog.open(directory, restored);
+        reopened.close();
+        assertSameGame(game, restored.get(game.gameId));
+
+        //Opening again replays nothing twice either
+        SessionStore restoredAgain = newStore();
+        GameLog.open(directory, restoredAgain).close();
+        assertEquals(1, restoredAgain.size());
+        assertSameGame(game, restoredAgain.get(game.gameId));
+    }
+
+    private static void assertSameGame(Mastermind expected, Mastermind actual) {
+        assertNotNull(actual);
+        assertEquals(expected.gameId, actual.gameId);
+        assertSame(expected.variant, actual.variant);
+        assertEquals(expected.getSecretValues(), actual.getSecretValues());
+        assertEquals(expected.nbOfTry, actual.nbOfTry);
+        for (int i = 0; i < expected.nbOfTry; i++) {
+            assertEquals(expected.roundValues[i], actual.roundValues[i]);
+        }
+    }
+
+    private static SessionStore newStore() {
+        return new SessionStore(1000, 3600);
+    }
+
+    /**
+     * Plays rounds that do not end the game
+     */
+    private static void play(Mastermind game, int tries) {
+        for (int i = 0; i < tries; i++) {
+            int guess = game.encodeColors(new String[] {"red", "blue", "yellow", "green"});
+            if (guess == game.getSecretValues())
+                guess = game.encodeColors(new String[] {"green", "yellow", "blue", "red"});
+            assertNotEquals(Mastermind.GAME_OVER, game.addNewRoundValues(guess));
+        }
+    }
+
+    /**
+     * Finds the only segment of the log directory
+     */
+    private Path segment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segments[] = files.filter(file -> file.getFileName().toString().endsWith(".log")).toArray(Path[]::new);
+            assertEquals(1, segments.length);
+            return segments[0];
+        }
+    }
+}
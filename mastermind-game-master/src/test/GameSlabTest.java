@@ -0,0 +1,147 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the off-heap tier of the game store : parking and unparking games, deleting them, the probing of
+ * the index when it wraps around its end, and the least recently used game dropped when the slab is full.
+ */
+public class GameSlabTest {
+    //A slab of 4 games has an index of 8 entries
+    private static final int CAPACITY = 4;
+    private static final int INDEX_BITS = 3;
+
+    @Test
+    public void parkedGameIsUnparkedUnchanged() {
+        GameSlab slab = new GameSlab(CAPACITY);
+        Mastermind game = newGame(idAt(0, 0), GameVariant.EXPERT, 3);
+
+        assertNull(slab.park(game));
+        assertEquals(1, slab.size());
+        assertTrue(slab.contains(game.gameId));
+
+        Mastermind unparked = slab.unpark(game.gameId);
+        assertSameGame(game, unparked);
+        assertEquals(0, slab.size());
+        assertFalse(slab.contains(game.gameId));
+        assertNull(slab.unpark(game.gameId));
+    }
+
+    @Test
+    public void removeDeletesOnlyThatGame() {
+        GameSlab slab = new GameSlab(CAPACITY);
+        Mastermind first = newGame(idAt(2, 0), GameVariant.CLASSIC, 1);
+        Mastermind second = newGame(idAt(5, 0), GameVariant.CLASSIC, 2);
+        slab.park(first);
+        slab.park(second);
+
+        assertTrue(slab.remove(first.gameId));
+        assertFalse(slab.remove(first.gameId));
+        assertFalse(slab.contains(first.gameId));
+        assertEquals(1, slab.size());
+        assertSameGame(second, slab.unpark(second.gameId));
+    }
+
+    @Test
+    public void probingWrapsAroundTheEndOfTheIndex() {
+        GameSlab slab = new GameSlab(CAPACITY);
+        //All in the last entry of the index, the next ones go to the first entries
+        Mastermind games[] = new Mastermind[CAPACITY];
+        for (int i = 0; i < games.length; i++) {
+            games[i] = newGame(idAt(7, i), GameVariant.CLASSIC, i);
+            slab.park(games[i]);
+        }
+        for (Mastermind game : games) {
+            assertTrue(slab.contains(game.gameId));
+        }
+
+        //Deleting the entry before the wrap shifts the others back, they are still found
+        assertTrue(slab.remove(games[0].gameId));
+        assertSameGame(games[2], slab.unpark(games[2].gameId));
+        assertTrue(slab.contains(games[1].gameId));
+        assertTrue(slab.contains(games[3].gameId));
+
+        //The freed entries are used again
+        Mastermind other = newGame(idAt(7, CAPACITY), GameVariant.SUPER, 5);
+        slab.park(other);
+        assertSameGame(other, slab.unpark(other.gameId));
+        assertSameGame(games[1], slab.unpark(games[1].gameId));
+        assertSameGame(games[3], slab.unpark(games[3].gameId));
+        assertEquals(0, slab.size());
+    }
+
+    @Test
+    public void fullSlabDropsTheLeastRecentlyUsedGame() {
+        GameSlab slab = new GameSlab(CAPACITY);
+        List<String> gameIds = new ArrayList<>();
+        for (int i = 0; i < CAPACITY; i++) {
+            Mastermind game = newGame(idAt(i, 0), GameVariant.CLASSIC, 0);
+            gameIds.add(game.gameId);
+            assertNull(slab.park(game));
+        }
+
+        Mastermind last = newGame(idAt(6, 1), GameVariant.CLASSIC, 0);
+        assertEquals(gameIds.get(0), slab.park(last));
+        assertEquals(CAPACITY, slab.size());
+        assertFalse(slab.contains(gameIds.get(0)));
+
+        gameIds.remove(0);
+        gameIds.add(last.gameId);
+        List<String> order = new ArrayList<>();
+        slab.forEach(game -> order.add(game.gameId));
+        assertEquals(gameIds, order);
+    }
+
+    @Test
+    public void onlyExpiredGamesArePolled() {
+        GameSlab slab = new GameSlab(CAPACITY);
+        Mastermind game = newGame(idAt(1, 0), GameVariant.CLASSIC, 0);
+        slab.park(game);
+
+        assertNull(slab.pollExpired(game.lastAccessTime + 10, 10));
+        assertEquals(game.gameId, slab.pollExpired(game.lastAccessTime + 11, 10));
+        assertEquals(0, slab.size());
+    }
+
+    /**
+     * Creates a game with a known secret and some rounds, none of them wins
+     */
+    static Mastermind newGame(String gameId, GameVariant variant, int tries) {
+        Mastermind game = new Mastermind(variant, gameId, 0);
+        for (int i = 0; i < tries; i++) {
+            int guess = 0;
+            for (int peg = 0; peg < variant.pegs; peg++) {
+                guess = guess * 16 + 1 + (i + peg) % (variant.colors - 1);
+            }
+            assertNotEquals(Mastermind.GAME_OVER, game.addNewRoundValues(guess));
+        }
+        return game;
+    }
+
+    static void assertSameGame(Mastermind expected, Mastermind actual) {
+        assertNotNull(actual);
+        assertEquals(expected.gameId, actual.gameId);
+        assertSame(expected.variant, actual.variant);
+        assertEquals(expected.getSecretValues(), actual.getSecretValues());
+        assertEquals(expected.nbOfTry, actual.nbOfTry);
+        for (int i = 0; i < expected.nbOfTry; i++) {
+            assertEquals(expected.roundValues[i], actual.roundValues[i]);
+        }
+    }
+
+    /**
+     * Finds a game ID going to an entry of the index of the slab
+     * @param position the entry
+     * @param skip the number of matching IDs to skip, to get different IDs
+     */
+    private static String idAt(int position, int skip) {
+        for (long n = 0; ; n++) {
+            String gameId = String.format("%026d", n);
+            if ((gameId.hashCode() * 0x9E3779B9) >>> (32 - INDEX_BITS) == position && skip-- == 0)
+                return gameId;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the streaming HTTP parser : requests received in several reads, several requests received in one
+ * read, and the requests over the size limits.
+ */
+public class HttpParserTest {
+    private static final String GET = "GET /play.html?red=1&blue=2 HTTP/1.1\r\nHost: localhost\r\nCookie: id=abc\r\n\r\n";
+    private static final String POST = "POST / HTTP/1.1\r\nHost: localhost\r\n"
+            + "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: 15\r\n\r\ncolor1=red&x=ab";
+
+    @Test
+    public void requestSplitInEveryByteIsParsed() {
+        byte data[] = bytes(POST);
+        HttpParser parser = new HttpParser();
+        for (int limit = 1; limit < data.length; limit++) {
+            assertFalse(parser.parse(data, limit), "complete after " + limit + " bytes");
+        }
+        assertTrue(parser.parse(data, data.length));
+
+        HttpPost post = assertInstanceOf(HttpPost.class, parser.getRequest());
+        assertEquals("/", post.getHttpUrl());
+        assertEquals("localhost", post.httpHeaders.get(HttpParser.HOST));
+        assertEquals("color1=red&x=ab", post.getBody());
+        assertTrue(post.parameters.isEmpty());
+        assertTrue(post.readFormParameters());
+        assertEquals("red", post.parameters.get("color1"));
+        assertEquals("ab", post.parameters.get("x"));
+        assertEquals(data.length, parser.getRequestLength());
+    }
+
+    @Test
+    public void pipelinedRequestsAreParsedOneAfterTheOther() {
+        byte data[] = bytes(GET + POST + GET);
+        HttpParser parser = new HttpParser();
+
+        assertTrue(parser.parse(data, data.length));
+        HttpGet get = assertInstanceOf(HttpGet.class, parser.getRequest());
+        assertEquals("/play.html", get.getHttpUrl());
+        assertEquals("1", get.parameters.get("red"));
+        assertEquals("2", get.parameters.get("blue"));
+        assertEquals("id=abc", get.httpHeaders.get(HttpParser.COOKIE));
+        int used = parser.getRequestLength();
+        assertEquals(GET.length(), used);
+
+        parser.reset(used);
+        assertTrue(parser.parse(data, data.length));
+        assertEquals("color1=red&x=ab", assertInstanceOf(HttpPost.class, parser.getRequest()).getBody());
+        used += parser.getRequestLength();
+
+        //The connection drops the bytes of the requests already answered, the last one is half received
+        int received = data.length - 10;
+        byte compacted[] = new byte[data.length - used];
+        System.arraycopy(data, used, compacted, 0, compacted.length);
+        parser.reset(used);
+        assertFalse(parser.parse(data, received));
+        parser.shift(used);
+        assertTrue(parser.parse(compacted, compacted.length));
+        assertEquals("/play.html", assertInstanceOf(HttpGet.class, parser.getRequest()).getHttpUrl());
+        assertEquals(GET.length(), parser.getRequestLength());
+    }
+
+    @Test
+    public void bodyIsWaitedForAfterTheHeaders() {
+        byte data[] = bytes(POST);
+        int headersLength = POST.indexOf("\r\n\r\n") + 4;
+        HttpParser parser = new HttpParser();
+
+        assertFalse(parser.parse(data, headersLength));
+        assertFalse(parser.parse(data, data.length - 1));
+        assertTrue(parser.parse(data, data.length));
+        assertEquals("color1=red&x=ab", assertInstanceOf(HttpPost.class, parser.getRequest()).getBody());
+    }
+
+    @Test
+    public void oversizeBodyIsRejectedBeforeItIsReceived() {
+        String headers = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: "
+                + (HttpParser.MAX_CONTENT_LENGTH + 1) + "\r\n\r\n";
+        assertReply(HttpConstant.code_413, headers);
+
+        assertReply(HttpConstant.code_413, "POST / HTTP/1.1\r\nContent-Length: 99999999999999999999\r\n\r\n");
+    }
+
+    @Test
+    public void bodyOfTheMaximumLengthIsAccepted() {
+        StringBuilder body = new StringBuilder("a=");
+        while (body.length() < HttpParser.MAX_CONTENT_LENGTH)
+            body.append('b');
+        byte data[] = bytes("POST / HTTP/1.1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body);
+
+        HttpParser parser = new HttpParser();
+        assertTrue(parser.parse(data, data.length));
+        HttpPost post = assertInstanceOf(HttpPost.class, parser.getRequest());
+        assertTrue(post.readFormParameters());
+        assertEquals(body.length() - 2, post.parameters.get("a").length());
+    }
+
+    @Test
+    public void bodyIsReadAsAFormOnlyWhenAsked() {
+        String guesses = "0123 red blue red green\n";
+        byte data[] = bytes("POST /simulate HTTP/1.1\r\nContent-Type: application/x-www-form-urlencoded\r\n"
+                + "Content-Length: " + guesses.length() + "\r\n\r\n" + guesses);
+        HttpParser parser = new HttpParser();
+        assertTrue(parser.parse(data, data.length));
+
+        //Not a form, whatever its Content-Type, but the parser does not reject it
+        HttpPost post = assertInstanceOf(HttpPost.class, parser.getRequest());
+        assertEquals(guesses, post.getBody());
+        assertFalse(post.readFormParameters());
+
+        data = bytes("POST / HTTP/1.1\r\nContent-Type: text/plain\r\nContent-Length: 3\r\n\r\nabc");
+        parser.reset();
+        assertTrue(parser.parse(data, data.length));
+        post = assertInstanceOf(HttpPost.class, parser.getRequest());
+        assertTrue(post.readFormParameters());
+        assertTrue(post.parameters.isEmpty());
+    }
+
+    @Test
+    public void oversizeHeadersAreRejected() {
+        StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+        while (request.length() < HttpParser.MAX_HEADER_SIZE)
+            request.append("X-Padding: 0123456789012345678901234567890123456789\r\n");
+        assertReply(HttpConstant.code_431, request.toString());
+    }
+
+    @Test
+    public void postWithoutLengthIsRejected() {
+        assertReply(HttpConstant.code_411, "POST / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+    }
+
+    @Test
+    public void badRequestLineIsRejected() {
+        assertReply(HttpConstant.code_400, "GET /\r\n\r\n");
+        assertReply(HttpConstant.code_505, "GET / HTTP/2.0\r\n\r\n");
+    }
+
+    private static void assertReply(String code, String request) {
+        byte data[] = bytes(request);
+        HttpParser parser = new HttpParser();
+        assertTrue(parser.parse(data, data.length));
+        assertEquals(code, assertInstanceOf(HttpReply.class, parser.getRequest()).code);
+    }
+
+    private static byte[] bytes(String request) {
+        return request.getBytes(StandardCharsets.US_ASCII);
+    }
+}
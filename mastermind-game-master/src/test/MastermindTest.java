@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of a game : the packed rounds of every variant and the end of the game, also with concurrent guesses.
+ */
+public class MastermindTest {
+    @Test
+    public void colorsArePackedForEveryVariant() {
+        for (GameVariant variant : new GameVariant[] {GameVariant.CLASSIC, GameVariant.SUPER,
+                GameVariant.EXPERT, GameVariant.GRAND}) {
+            Mastermind game = new Mastermind(variant);
+            String colors[] = new String[variant.pegs];
+            for (int i = 0; i < colors.length; i++) {
+                colors[i] = variant.colorNames[(i * 3) % variant.colors];
+            }
+            int values = game.encodeColors(colors);
+            for (int i = 0; i < colors.length; i++) {
+                assertEquals(variant.getColorIndex(colors[i]), Mastermind.getPeg(values, i));
+            }
+            assertEquals(variant.maxTries, game.roundValues.length);
+        }
+
+        Mastermind classic = new Mastermind(GameVariant.CLASSIC);
+        assertEquals(-1, classic.encodeColors(new String[] {"red", "blue", "yellow"}));
+        assertEquals(-1, classic.encodeColors(new String[] {"red", "blue", "yellow", "pink"}));
+    }
+
+    @Test
+    public void roundHoldsTheGuessAndItsScore() {
+        Mastermind game = new Mastermind(GameVariant.CLASSIC, "00000000000000000000000000",
+                encode(GameVariant.CLASSIC, "red", "blue", "yellow", "green"));
+        int guess = encode(GameVariant.CLASSIC, "red", "green", "yellow", "white");
+
+        long round = game.addNewRoundValues(guess);
+        assertEquals(guess, Mastermind.getGuess(round));
+        assertEquals(2, Mastermind.getGoodColorAndPosition(round));
+        assertEquals(1, Mastermind.getGoodColors(round));
+        assertEquals(1, game.nbOfTry);
+        assertEquals(Mastermind.STATE_PLAYING, game.getState());
+        assertFalse(game.isGameOver);
+    }
+
+    @Test
+    public void wonGameTakesNoMoreRounds() {
+        int secret = encode(GameVariant.SUPER, "red", "blue", "yellow", "green", "pink");
+        Mastermind game = new Mastermind(GameVariant.SUPER, "00000000000000000000000000", secret);
+
+        assertNotEquals(Mastermind.GAME_OVER, game.addNewRoundValues(secret));
+        assertEquals(Mastermind.STATE_WON, game.getState());
+        assertTrue(game.isGameOver);
+        assertEquals(Mastermind.GAME_OVER, game.addNewRoundValues(secret));
+        assertEquals(1, game.nbOfTry);
+    }
+
+    @Test
+    public void lostGameTakesNoMoreRounds() {
+        Mastermind game = new Mastermind(GameVariant.EXPERT, "00000000000000000000000000", 0);
+        int guess = encode(GameVariant.EXPERT, "blue", "blue", "blue", "blue", "blue", "blue");
+        for (int i = 0; i < GameVariant.EXPERT.maxTries; i++) {
+            assertNotEquals(Mastermind.GAME_OVER, game.addNewRoundValues(guess));
+        }
+        assertEquals(Mastermind.STATE_LOST, game.getState());
+        assertTrue(game.isGameOver);
+        assertEquals(Mastermind.GAME_OVER, game.addNewRoundValues(guess));
+        assertEquals(GameVariant.EXPERT.maxTries, game.nbOfTry);
+    }
+
+    @Test
+    public void concurrentGuessesPlayEveryTryOnce() throws InterruptedException {
+        Mastermind game = new Mastermind(GameVariant.CLASSIC, "00000000000000000000000000", 0);
+        int guess = encode(GameVariant.CLASSIC, "blue", "blue", "blue", "blue");
+        int threads = 8;
+        AtomicInteger scored = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread players[] = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            players[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < GameVariant.CLASSIC.maxTries; j++) {
+                    if (game.addNewRoundValues(guess) != Mastermind.GAME_OVER)
+                        scored.incrementAndGet();
+                }
+            });
+            players[i].start();
+        }
+        start.countDown();
+        for (Thread player : players) {
+            player.join();
+        }
+
+        assertEquals(GameVariant.CLASSIC.maxTries, scored.get());
+        assertEquals(GameVariant.CLASSIC.maxTries, game.nbOfTry);
+        assertTrue(game.isGameOver);
+    }
+
+    private static int encode(GameVariant variant, String... colors) {
+        return new Mastermind(variant).encodeColors(colors);
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the allocation-free scoring, against a plain count of the pegs with arrays.
+ */
+public class ScoringEngineTest {
+    @Test
+    public void knownCombinationsAreScored() {
+        //secret red blue yellow green
+        int secret = pack(0, 1, 2, 3);
+        assertResult(4, 0, ScoringEngine.score(secret, pack(0, 1, 2, 3), 4, 6));
+        assertResult(0, 4, ScoringEngine.score(secret, pack(3, 2, 1, 0), 4, 6));
+        assertResult(2, 2, ScoringEngine.score(secret, pack(0, 1, 3, 2), 4, 6));
+        assertResult(0, 0, ScoringEngine.score(secret, pack(4, 5, 4, 5), 4, 6));
+        //A repeated color is misplaced only as many times as it is in the secret
+        assertResult(1, 0, ScoringEngine.score(secret, pack(0, 0, 0, 0), 4, 6));
+        assertResult(0, 1, ScoringEngine.score(pack(1, 2, 2, 2), pack(0, 1, 1, 1), 4, 6));
+    }
+
+    @Test
+    public void randomCombinationsOfEveryVariantMatchTheReference() {
+        Random random = new Random(42);
+        for (GameVariant variant : new GameVariant[] {GameVariant.CLASSIC, GameVariant.SUPER,
+                GameVariant.EXPERT, GameVariant.GRAND}) {
+            for (int i = 0; i < 10_000; i++) {
+                int secret[] = randomPegs(random, variant);
+                int guess[] = randomPegs(random, variant);
+                int result = ScoringEngine.score(pack(secret), pack(guess), variant.pegs, variant.colors);
+                assertEquals(referenceScore(secret, guess, variant.colors), result, variant.name);
+            }
+        }
+    }
+
+    @Test
+    public void resultIsPackedAndUnpacked() {
+        int result = ScoringEngine.pack(3, 5);
+        assertEquals(3, ScoringEngine.getBlack(result));
+        assertEquals(5, ScoringEngine.getWhite(result));
+    }
+
+    private static void assertResult(int black, int white, int result) {
+        assertEquals(black, ScoringEngine.getBlack(result), "black");
+        assertEquals(white, ScoringEngine.getWhite(result), "white");
+    }
+
+    private static int referenceScore(int secret[], int guess[], int colors) {
+        int black = 0;
+        int secretCounts[] = new int[colors];
+        int guessCounts[] = new int[colors];
+        for (int i = 0; i < secret.length; i++) {
+            if (secret[i] == guess[i]) {
+                black++;
+            }
+            else {
+                secretCounts[secret[i]]++;
+                guessCounts[guess[i]]++;
+            }
+        }
+        int white = 0;
+        for (int color = 0; color < colors; color++) {
+            white += Math.min(secretCounts[color], guessCounts[color]);
+        }
+        return ScoringEngine.pack(black, white);
+    }
+
+    private static int[] randomPegs(Random random, GameVariant variant) {
+        int pegs[] = new int[variant.pegs];
+        for (int i = 0; i < pegs.length; i++) {
+            pegs[i] = random.nextInt(variant.colors);
+        }
+        return pegs;
+    }
+
+    /**
+     * Packs colors like Mastermind.encodeColors, 4 bits per peg
+     */
+    private static int pack(int... pegs) {
+        int values = 0;
+        for (int i = 0; i < pegs.length; i++) {
+            values |= pegs[i] << (i * 4);
+        }
+        return values;
+    }
+}
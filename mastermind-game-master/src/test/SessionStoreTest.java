@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the games parked off-heap by the store while a player still holds them : the old copy refuses the
+ * rounds, which are played on the game read again, so none is lost.
+ */
+public class SessionStoreTest {
+    @Test
+    public void parkedCopyRefusesRounds() {
+        //One game on the heap, the others are parked
+        SessionStore store = new SessionStore(1, 1, 3600, 10, 60);
+        Mastermind game = store.create(GameVariant.CLASSIC);
+        int guess = losingGuess(game);
+        assertNotEquals(Mastermind.GAME_OVER, game.addNewRoundValues(guess));
+
+        store.create(GameVariant.CLASSIC);
+        assertEquals(1, store.parkedSize());
+        assertEquals(Mastermind.PARKED, game.addNewRoundValues(guess));
+
+        Mastermind unparked = store.get(game.gameId);
+        assertNotSame(game, unparked);
+        assertEquals(1, unparked.nbOfTry);
+        long round = unparked.addNewRoundValues(guess);
+        assertEquals(2, Mastermind.getTries(round));
+
+        //Parked again, the round is in the copy
+        store.create(GameVariant.CLASSIC);
+        store.create(GameVariant.CLASSIC);
+        assertEquals(2, store.get(game.gameId).nbOfTry);
+    }
+
+    @Test
+    public void noRoundIsLostWhileGamesAreParked() throws InterruptedException {
+        SessionStore store = new SessionStore(1, 1, 3600, 100, 60);
+        Mastermind game = store.create(GameVariant.GRAND);
+        String gameId = game.gameId;
+        int guess = losingGuess(game);
+
+        //Another player keeps pushing the game off-heap
+        AtomicBoolean isPlaying = new AtomicBoolean(true);
+        Thread other = new Thread(() -> {
+            while (isPlaying.get()) {
+                store.remove(store.create(GameVariant.CLASSIC).gameId);
+                store.create(GameVariant.CLASSIC);
+            }
+        });
+        other.start();
+
+        int scored = 0;
+        try {
+            for (int i = 0; i < GameVariant.GRAND.maxTries; i++) {
+                //As a worker does : the game is read, then played, and read again if it was parked meanwhile
+                Mastermind current = store.get(gameId);
+                assertNotNull(current);
+                long round = current.addNewRoundValues(guess);
+                while (round == Mastermind.PARKED) {
+                    current = store.get(gameId);
+                    round = current.addNewRoundValues(guess);
+                }
+                assertEquals(i + 1, Mastermind.getTries(round));
+                scored++;
+            }
+        } finally {
+            isPlaying.set(false);
+            other.join();
+        }
+
+        assertEquals(GameVariant.GRAND.maxTries, scored);
+        assertEquals(GameVariant.GRAND.maxTries, store.get(gameId).nbOfTry);
+    }
+
+    /**
+     * A guess of a single color which is not in the secret
+     */
+    private static int losingGuess(Mastermind game) {
+        for (int color = 0; color < game.variant.colors; color++) {
+            boolean isInSecret = false;
+            for (int peg = 0; peg < game.variant.pegs; peg++) {
+                isInSecret |= Mastermind.getPeg(game.getSecretValues(), peg) == color;
+            }
+            if (!isInSecret) {
+                String colors[] = new String[game.variant.pegs];
+                Arrays.fill(colors, game.variant.colorNames[color]);
+                return game.encodeColors(colors);
+            }
+        }
+        throw new IllegalStateException("every color is in the secret");
+    }
+}
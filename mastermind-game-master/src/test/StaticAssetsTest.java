@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the files of the asset directory : the ETag of the 304 replies, and the files changed or
+ * truncated on disk while they are served.
+ */
+public class StaticAssetsTest {
+    private static final Pattern ETAG = Pattern.compile("ETag: (\"[^\"]*\")");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void notModifiedGivesTheEtagOfTheEncoding() throws IOException {
+        writePage("first");
+        StaticAssets assets = new StaticAssets(directory);
+
+        String identity = reply(assets, null, null);
+        String gzip = reply(assets, ContentEncoding.GZIP, null);
+        assertTrue(gzip.contains("Content-Encoding: gzip"));
+        String identityEtag = etag(identity);
+        String gzipEtag = etag(gzip);
+        assertNotEquals(identityEtag, gzipEtag);
+
+        String notModified = reply(assets, ContentEncoding.GZIP, gzipEtag);
+        assertTrue(notModified.startsWith("HTTP/1.1 304"));
+        assertEquals(gzipEtag, etag(notModified));
+
+        notModified = reply(assets, null, identityEtag);
+        assertTrue(notModified.startsWith("HTTP/1.1 304"));
+        assertEquals(identityEtag, etag(notModified));
+    }
+
+    @Test
+    public void changedFileIsLoadedAgain() throws IOException, InterruptedException {
+        Path file = writePage("first");
+        StaticAssets assets = new StaticAssets(directory);
+        String first = reply(assets, null, null);
+
+        //Truncated on disk, the copy in memory is still served
+        Files.write(file, new byte[0]);
+        assertEquals(first, reply(assets, null, null));
+
+        writePage("second");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+        Thread.sleep(1100);
+        String second = reply(assets, null, null);
+        assertTrue(second.contains("second"));
+        assertNotEquals(etag(first), etag(second));
+        assertEquals("HTTP/1.1 200", reply(assets, null, etag(first)).substring(0, 12));
+    }
+
+    private Path writePage(String text) throws IOException {
+        Path file = directory.resolve("page.html");
+        Files.write(file, ("<html><body>" + text + " " + "a long enough page to be compressed ".repeat(20)
+                + "</body></html>").getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static String reply(StaticAssets assets, String acceptEncoding, String ifNoneMatch) {
+        HttpGet request = new HttpGet();
+        request.setHttpUrl(StaticAssets.URL_PREFIX + "page.html");
+        if (acceptEncoding != null)
+            request.httpHeaders.put(HttpParser.ACCEPT_ENCODING, acceptEncoding);
+        if (ifNoneMatch != null)
+            request.httpHeaders.put(HttpParser.IF_NONE_MATCH, ifNoneMatch);
+
+        StringBuilder reply = new StringBuilder();
+        for (ByteBuffer buffer : assets.getReply(request, true)) {
+            byte bytes[] = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            reply.append(new String(bytes, StandardCharsets.ISO_8859_1));
+        }
+        return reply.toString();
+    }
+
+    private static String etag(String reply) {
+        Matcher matcher = ETAG.matcher(reply);
+        assertTrue(matcher.find());
+        return matcher.group(1);
+    }
+}
@@ -0,0 +1,195 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the WebSocket mode : the handshake, the frames received in one or several reads, fragmented
+ * messages, the control frames and the protocol errors.
+ */
+public class WebSocketSessionTest {
+    private static final String GAME_ID = "00000000000000000000000000";
+    private static final byte MASK[] = {0x12, 0x34, 0x56, 0x78};
+
+    private RecordingConnection connection;
+    private WebSocketSession session;
+
+    @BeforeEach
+    public void setup() {
+        WebServer.sessions = new SessionStore(100, 3600);
+        Mastermind game = new Mastermind(GameVariant.CLASSIC, GAME_ID, 0);
+        game = new Mastermind(GameVariant.CLASSIC, GAME_ID, game.encodeColors(new String[] {"red", "blue", "yellow", "green"}));
+        WebServer.sessions.restore(game);
+        connection = new RecordingConnection();
+        session = new WebSocketSession(connection, game, new HtmlAdapter());
+    }
+
+    @Test
+    public void handshakeAcceptsTheKey() {
+        //Example of RFC 6455
+        String reply = new String(WebSocketSession.createHandshakeReply("dGhlIHNhbXBsZSBub25jZQ==", "id=1"), StandardCharsets.ISO_8859_1);
+        assertTrue(reply.startsWith("HTTP/1.1 101 "));
+        assertTrue(reply.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+
+        HttpGet request = new HttpGet();
+        request.httpHeaders.put(HttpParser.HOST, "localhost:8010");
+        request.httpHeaders.put(HttpParser.UPGRADE, "websocket");
+        request.httpHeaders.put(HttpParser.CONNECTION, "keep-alive, Upgrade");
+        request.httpHeaders.put(HttpParser.SEC_WEBSOCKET_VERSION, WebSocketSession.VERSION);
+        request.httpHeaders.put(HttpParser.SEC_WEBSOCKET_KEY, "dGhlIHNhbXBsZSBub25jZQ==");
+        assertTrue(WebSocketSession.isUpgradeRequest(request));
+        assertTrue(WebSocketSession.isValidHandshake(request));
+
+        request.httpHeaders.put(HttpParser.ORIGIN, "http://localhost:8010");
+        assertTrue(WebSocketSession.isValidHandshake(request));
+        request.httpHeaders.put(HttpParser.ORIGIN, "http://example.com");
+        assertFalse(WebSocketSession.isValidHandshake(request));
+    }
+
+    @Test
+    public void framesOfOneReadAreAnsweredInOrder() {
+        byte first[] = clientFrame(0x81, "red red red red");
+        byte second[] = clientFrame(0x81, "red blue green yellow");
+        byte third[] = clientFrame(0x81, "blue blue blue blue");
+        byte data[] = concat(first, second, third);
+
+        //The third frame is not complete yet
+        int limit = data.length - 3;
+        assertEquals(first.length + second.length, session.onBytes(data, limit));
+        assertEquals(List.of("1_1_0", "2_2_2"), connection.textFrames());
+        assertFalse(connection.isClosed);
+    }
+
+    @Test
+    public void winningGuessEndsTheSession() {
+        byte data[] = concat(clientFrame(0x81, "red blue yellow green"), clientFrame(0x81, "red red red red"));
+        assertEquals(data.length, session.onBytes(data, data.length));
+        assertEquals(List.of("1_4_0"), connection.textFrames());
+        assertEquals(1000, connection.closeStatus());
+    }
+
+    @Test
+    public void fragmentedMessageIsPlayedOnce() {
+        byte data[] = concat(clientFrame(0x01, "red blue "), clientFrame(0x00, "yellow "), clientFrame(0x80, "white"));
+        assertEquals(data.length, session.onBytes(data, data.length));
+        assertEquals(List.of("1_3_0"), connection.textFrames());
+    }
+
+    @Test
+    public void pingIsAnsweredWithItsPayload() {
+        byte data[] = clientFrame(0x89, "hello");
+        assertEquals(data.length, session.onBytes(data, data.length));
+        byte pong[] = connection.frames.get(0);
+        assertEquals((byte) 0x8A, pong[0]);
+        assertEquals("hello", new String(pong, 2, pong[1], StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void protocolErrorsCloseTheSession() {
+        //Not masked
+        byte data[] = {(byte) 0x81, 0x01, 'a'};
+        session.onBytes(data, data.length);
+        assertEquals(1002, connection.closeStatus());
+
+        setup();
+        data = clientFrame(0x81, "x".repeat(2000));
+        session.onBytes(data, data.length);
+        assertEquals(1009, connection.closeStatus());
+
+        setup();
+        data = clientFrame(0x81, "red blue purple green");
+        session.onBytes(data, data.length);
+        assertEquals(1007, connection.closeStatus());
+    }
+
+    @Test
+    public void longServerFramesHaveAnExtendedLength() {
+        byte frame[] = WebSocketSession.createFrame(0x1, new byte[300]);
+        assertEquals(4 + 300, frame.length);
+        assertEquals((byte) 0x81, frame[0]);
+        assertEquals(126, frame[1]);
+        assertEquals(300, (frame[2] & 0xFF) << 8 | (frame[3] & 0xFF));
+    }
+
+    /**
+     * Creates a frame sent by a client, masked
+     */
+    private static byte[] clientFrame(int first, String text) {
+        byte payload[] = text.getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(first);
+        if (payload.length < 126) {
+            frame.write(0x80 | payload.length);
+        }
+        else {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length);
+        }
+        frame.writeBytes(MASK);
+        for (int i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ MASK[i & 3]);
+        }
+        return frame.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (byte part[] : parts) {
+            data.writeBytes(part);
+        }
+        return data.toByteArray();
+    }
+
+    /**
+     * Connection keeping what is sent, the guesses are played right away
+     */
+    private static class RecordingConnection extends ClientConnection {
+        final List<byte[]> frames = new ArrayList<>();
+        boolean isClosed;
+
+        RecordingConnection() {
+            super(null, null, new ServerConfig());
+        }
+
+        @Override
+        public void send(ByteBuffer[] buffers) {
+            for (ByteBuffer buffer : buffers) {
+                byte bytes[] = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                frames.add(bytes);
+            }
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+
+        @Override
+        void execute(Runnable task) {
+            task.run();
+        }
+
+        List<String> textFrames() {
+            List<String> texts = new ArrayList<>();
+            for (byte frame[] : frames) {
+                if (frame[0] == (byte) 0x81)
+                    texts.add(new String(frame, 2, frame[1], StandardCharsets.US_ASCII));
+            }
+            return texts;
+        }
+
+        int closeStatus() {
+            byte frame[] = frames.get(frames.size() - 1);
+            assertEquals((byte) 0x88, frame[0]);
+            return (frame[2] & 0xFF) << 8 | (frame[3] & 0xFF);
+        }
+    }
+}